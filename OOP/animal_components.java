@@ -0,0 +1,459 @@
+/*
+ * Entity-Component storage for the Animal hierarchy
+ *
+ * inheritance.java models every animal as an object:
+ *
+ *     Dog111  -> [header | name | age | breed]
+ *     Cat111  -> [header | name | age | isIndoor]
+ *     Bird111 -> [header | name | age | wingspan]
+ *
+ * A million animals = a million objects, each with a 12-16 byte header and
+ * padding, scattered around the heap. And "all indoor cats older than 5"
+ * means visiting every one of them.
+ *
+ * Entity-Component (ECS) turns this around:
+ * - an entity is just an int id (a row number)
+ * - every attribute is a column: one array per attribute, indexed by id
+ * - "is a cat" is not a class any more, it is a bit in a per-species bitset
+ *
+ *     id:        0      1      2      3
+ *     ages:    [ 3    | 7    | 2    | 9    ]     int[]
+ *     indoor:  [ -    | 1    | -    | 0    ]     bitset
+ *     cats:    [ 0    | 1    | 0    | 1    ]     bitset
+ *
+ * Same idea as a column store database. A query reads only the columns it
+ * needs, and bitsets combine 64 entities per AND / OR instruction.
+ *
+ * Secondary index on age: a range-encoded bitmap index. Bitmap a holds
+ * every entity with age >= a (not == a), so any age range is two bitmaps:
+ *     "5 <= age <= 9"  =  atLeast[5] AND NOT atLeast[10]
+ * instead of OR-ing up to 64 per-value bitmaps; then AND with "cats" and "indoor".
+ * The price is paid on writes: an entity of age 9 has its bit set in
+ * bitmaps 0..9. It is kept up to date on every insert, remove and age change,
+ * like a database index (see db/indexing.sql).
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+enum Species {
+    ANIMAL, DOG, CAT, BIRD
+}
+
+/*
+ * Fixed capacity bitset over entity ids, grown by the store.
+ * java.util.BitSet would work too, but exposing the long[] words lets
+ * queries combine several sets in one loop without temporary objects.
+ */
+final class EntityBits {
+    long[] words;
+
+    EntityBits(int capacity) {
+        this.words = new long[wordsFor(capacity)];
+    }
+
+    static int wordsFor(int capacity) {
+        return (capacity + 63) >>> 6;
+    }
+
+    void grow(int capacity) {
+        words = Arrays.copyOf(words, wordsFor(capacity));
+    }
+
+    void set(int id) {
+        words[id >>> 6] |= 1L << id;
+    }
+
+    void clear(int id) {
+        words[id >>> 6] &= ~(1L << id);
+    }
+
+    boolean get(int id) {
+        return (words[id >>> 6] & (1L << id)) != 0;
+    }
+}
+
+class AnimalStore {
+    // ages above this share the last bucket of the age index
+    static final int MAX_INDEXED_AGE = 63;
+
+    private int capacity = 1024;
+    private int size; // highest id + 1
+    private int live;
+
+    // ============ columns ============
+    private String[] names = new String[capacity];
+    private int[] ages = new int[capacity];
+    private byte[] species = new byte[capacity];
+    // breeds repeat a lot: store a small int per dog and the strings once
+    private int[] breedIds = new int[capacity];
+    private final List<String> breedDictionary = new ArrayList<>();
+    private final Map<String, Integer> breedIndex = new HashMap<>(); // breed -> position in breedDictionary
+    private float[] wingspans = new float[capacity];
+    private final EntityBits indoor = new EntityBits(capacity);
+
+    // ============ membership + index ============
+    private final EntityBits alive = new EntityBits(capacity);
+    private final EntityBits[] bySpecies = new EntityBits[Species.values().length];
+    private final EntityBits[] atLeastAge = new EntityBits[MAX_INDEXED_AGE + 1]; // atLeastAge[a]: age >= a
+
+    private int[] freeIds = new int[16];
+    private int freeCount;
+
+    public AnimalStore() {
+        for (int s = 0; s < bySpecies.length; s++) {
+            bySpecies[s] = new EntityBits(capacity);
+        }
+        for (int a = 0; a < atLeastAge.length; a++) {
+            atLeastAge[a] = new EntityBits(capacity);
+        }
+    }
+
+    // ============ inserts ============
+
+    public int addAnimal(String name, int age) {
+        return add(Species.ANIMAL, name, age);
+    }
+
+    public int addDog(String name, int age, String breed) {
+        int id = add(Species.DOG, name, age);
+        Integer breedId = breedIndex.get(breed);
+        if (breedId == null) {
+            breedId = breedDictionary.size();
+            breedDictionary.add(breed);
+            breedIndex.put(breed, breedId);
+        }
+        breedIds[id] = breedId;
+        return id;
+    }
+
+    public int addCat(String name, int age, boolean isIndoor) {
+        int id = add(Species.CAT, name, age);
+        if (isIndoor) {
+            indoor.set(id);
+        }
+        return id;
+    }
+
+    public int addBird(String name, int age, double wingspan) {
+        int id = add(Species.BIRD, name, age);
+        wingspans[id] = (float) wingspan;
+        return id;
+    }
+
+    private int add(Species kind, String name, int age) {
+        if (age < 0) {
+            throw new IllegalArgumentException("age must not be negative: " + age);
+        }
+        int id = freeCount > 0 ? freeIds[--freeCount] : size++;
+        if (id == capacity) {
+            grow(capacity * 2);
+        }
+        names[id] = name;
+        ages[id] = age;
+        species[id] = (byte) kind.ordinal();
+        alive.set(id);
+        bySpecies[kind.ordinal()].set(id);
+        indexAge(id, -1, ageBucket(age));
+        live++;
+        return id;
+    }
+
+    // ============ updates / removes keep the index in sync ============
+
+    public void setAge(int id, int age) {
+        checkAlive(id);
+        if (age < 0) {
+            throw new IllegalArgumentException("age must not be negative: " + age);
+        }
+        indexAge(id, ageBucket(ages[id]), ageBucket(age));
+        ages[id] = age;
+    }
+
+    // Moves id from "in bitmaps 0..oldBucket" to "in bitmaps 0..newBucket"; -1 = in none.
+    // Only the bitmaps between the two buckets change.
+    private void indexAge(int id, int oldBucket, int newBucket) {
+        for (int a = oldBucket + 1; a <= newBucket; a++) {
+            atLeastAge[a].set(id);
+        }
+        for (int a = newBucket + 1; a <= oldBucket; a++) {
+            atLeastAge[a].clear(id);
+        }
+    }
+
+    public void remove(int id) {
+        checkAlive(id);
+        alive.clear(id);
+        bySpecies[species[id]].clear(id);
+        indexAge(id, ageBucket(ages[id]), -1);
+        indoor.clear(id);
+        names[id] = null;
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+        live--;
+    }
+
+    // ============ column reads ============
+
+    public int size() {
+        return live;
+    }
+
+    public String getName(int id) {
+        checkAlive(id);
+        return names[id];
+    }
+
+    public int getAge(int id) {
+        checkAlive(id);
+        return ages[id];
+    }
+
+    public Species getSpecies(int id) {
+        checkAlive(id);
+        return Species.values()[species[id]];
+    }
+
+    public String getBreed(int id) {
+        checkSpecies(id, Species.DOG);
+        return breedDictionary.get(breedIds[id]);
+    }
+
+    public boolean isIndoor(int id) {
+        checkSpecies(id, Species.CAT);
+        return indoor.get(id);
+    }
+
+    public double getWingspan(int id) {
+        checkSpecies(id, Species.BIRD);
+        return wingspans[id];
+    }
+
+    // Back to the object model when some old code needs a real Dog111 / Cat111.
+    public Animal111 toObject(int id) {
+        checkAlive(id);
+        switch (getSpecies(id)) {
+            case DOG:
+                return new Dog111(names[id], ages[id], getBreed(id));
+            case CAT:
+                return new Cat111(names[id], ages[id], indoor.get(id));
+            case BIRD:
+                return new Bird111(names[id], ages[id], wingspans[id]);
+            default:
+                return new Animal111(names[id], ages[id]);
+        }
+    }
+
+    // ============ queries ============
+
+    /*
+     * Query plan for (species, age range, [indoor]):
+     *   1. atLeastAge[minAge] AND NOT atLeastAge[maxAge + 1], whatever the range width
+     *   2. AND with the species bitset (and the indoor bitset if asked)
+     *   3. walk the set bits
+     * Every step works on 64 entities at a time and never touches an object.
+     */
+    public void forEach(Species kind, int minAge, int maxAge, boolean indoorOnly, IntConsumer action) {
+        long[] result = select(kind, minAge, maxAge, indoorOnly);
+        for (int w = 0; w < result.length; w++) {
+            long word = result[w];
+            while (word != 0) {
+                action.accept((w << 6) + Long.numberOfTrailingZeros(word));
+                word &= word - 1; // clear lowest set bit
+            }
+        }
+    }
+
+    public int count(Species kind, int minAge, int maxAge, boolean indoorOnly) {
+        int n = 0;
+        for (long word : select(kind, minAge, maxAge, indoorOnly)) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    public int[] find(Species kind, int minAge, int maxAge, boolean indoorOnly) {
+        int[] ids = new int[count(kind, minAge, maxAge, indoorOnly)];
+        int[] n = new int[1];
+        forEach(kind, minAge, maxAge, indoorOnly, id -> ids[n[0]++] = id);
+        return ids;
+    }
+
+    public double averageAge(Species kind) {
+        long sum = 0;
+        int n = 0;
+        long[] members = bySpecies[kind.ordinal()].words;
+        for (int w = 0; w < members.length; w++) {
+            long word = members[w];
+            while (word != 0) {
+                sum += ages[(w << 6) + Long.numberOfTrailingZeros(word)];
+                n++;
+                word &= word - 1;
+            }
+        }
+        return n == 0 ? 0 : (double) sum / n;
+    }
+
+    private long[] select(Species kind, int minAge, int maxAge, boolean indoorOnly) {
+        int words = EntityBits.wordsFor(size);
+        long[] result = new long[words];
+        if (minAge > maxAge || maxAge < 0) {
+            return result;
+        }
+        long[] atLeastMin = atLeastAge[ageBucket(Math.max(0, minAge))].words;
+        // above the top bucket there is no upper bitmap, nothing to subtract
+        long[] atLeastAboveMax = maxAge < MAX_INDEXED_AGE ? atLeastAge[maxAge + 1].words : null;
+        long[] kindWords = bySpecies[kind.ordinal()].words;
+        long[] indoorWords = indoor.words;
+        for (int w = 0; w < words; w++) {
+            long word = atLeastMin[w] & kindWords[w];
+            if (atLeastAboveMax != null) {
+                word &= ~atLeastAboveMax[w];
+            }
+            if (indoorOnly) {
+                word &= indoorWords[w];
+            }
+            result[w] = word;
+        }
+        // the last bucket holds every age >= MAX_INDEXED_AGE, check the exact column there
+        if ((minAge > MAX_INDEXED_AGE) || (maxAge >= MAX_INDEXED_AGE && maxAge < Integer.MAX_VALUE)) {
+            for (int w = 0; w < words; w++) {
+                long word = result[w] & atLeastAge[MAX_INDEXED_AGE].words[w];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    int age = ages[(w << 6) + bit];
+                    if (age < minAge || age > maxAge) {
+                        result[w] &= ~(1L << bit);
+                    }
+                    word &= word - 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static int ageBucket(int age) {
+        return Math.min(age, MAX_INDEXED_AGE);
+    }
+
+    private void grow(int newCapacity) {
+        capacity = newCapacity;
+        names = Arrays.copyOf(names, newCapacity);
+        ages = Arrays.copyOf(ages, newCapacity);
+        species = Arrays.copyOf(species, newCapacity);
+        breedIds = Arrays.copyOf(breedIds, newCapacity);
+        wingspans = Arrays.copyOf(wingspans, newCapacity);
+        indoor.grow(newCapacity);
+        alive.grow(newCapacity);
+        for (EntityBits bits : bySpecies) {
+            bits.grow(newCapacity);
+        }
+        for (EntityBits bits : atLeastAge) {
+            bits.grow(newCapacity);
+        }
+    }
+
+    private void checkAlive(int id) {
+        if (id < 0 || id >= size || !alive.get(id)) {
+            throw new IllegalArgumentException("No animal with id " + id);
+        }
+    }
+
+    private void checkSpecies(int id, Species expected) {
+        if (getSpecies(id) != expected) {
+            throw new IllegalArgumentException("Animal " + id + " is not a " + expected);
+        }
+    }
+}
+
+class AnimalComponentsDemo {
+    public static void main(String[] args) {
+        AnimalStore store = new AnimalStore();
+        store.addDog("Rex", 4, "Labrador");
+        int tom = store.addCat("Tom", 7, true);
+        store.addCat("Felix", 9, false);
+        store.addBird("Tweety", 2, 0.3);
+        store.addCat("Kitty", 3, true);
+
+        // "all indoor cats older than 5"
+        for (int id : store.find(Species.CAT, 6, Integer.MAX_VALUE, true)) {
+            System.out.println(store.getName(id) + " (" + store.getAge(id) + ")"); // Tom (7)
+        }
+        store.toObject(tom).sleep(); // Tom is sleeping
+
+        // Objects vs columns on a few million animals
+        int n = 3_000_000;
+        Random random = new Random(1);
+        List<Animal111> objects = new ArrayList<>(n);
+        AnimalStore big = new AnimalStore();
+        for (int i = 0; i < n; i++) {
+            int age = random.nextInt(20);
+            switch (random.nextInt(3)) {
+                case 0:
+                    objects.add(new Dog111("dog" + i, age, "Beagle"));
+                    big.addDog("dog" + i, age, "Beagle");
+                    break;
+                case 1:
+                    boolean isIndoor = random.nextBoolean();
+                    objects.add(new IndoorCat("cat" + i, age, isIndoor));
+                    big.addCat("cat" + i, age, isIndoor);
+                    break;
+                default:
+                    objects.add(new Bird111("bird" + i, age, 0.5));
+                    big.addBird("bird" + i, age, 0.5);
+            }
+        }
+
+        long start = System.nanoTime();
+        int scanned = 0;
+        for (int rep = 0; rep < 20; rep++) {
+            scanned = 0;
+            for (Animal111 animal : objects) {
+                if (animal instanceof IndoorCat cat && cat.indoor && cat.age > 5) {
+                    scanned++;
+                }
+            }
+        }
+        long scanNanos = (System.nanoTime() - start) / 20;
+
+        start = System.nanoTime();
+        int indexed = 0;
+        for (int rep = 0; rep < 20; rep++) {
+            indexed = big.count(Species.CAT, 6, Integer.MAX_VALUE, true);
+        }
+        long indexNanos = (System.nanoTime() - start) / 20;
+
+        System.out.printf("Object scan: %,d cats in %,d us%n", scanned, scanNanos / 1000);
+        System.out.printf("Bitmap index: %,d cats in %,d us%n", indexed, indexNanos / 1000);
+    }
+
+    // Cat111 keeps isIndoor private, so the object scan needs a readable copy.
+    static final class IndoorCat extends Cat111 {
+        final boolean indoor;
+
+        IndoorCat(String name, int age, boolean indoor) {
+            super(name, age, indoor);
+            this.indoor = indoor;
+        }
+    }
+}
+
+/*
+ * When ECS / columns win:
+ * - millions of entities, queries over a few attributes at a time
+ * - bulk updates ("everybody ages by one year") become tight array loops
+ *
+ * When objects win:
+ * - small numbers of entities
+ * - rich behaviour per type (methods, overriding) matters more than scans
+ *
+ * Games use ECS for exactly this reason: thousands of entities, every frame
+ * touches the same few components of all of them.
+ */
@@ -0,0 +1,357 @@
+/*
+ * Concurrent Vehicle: one atomic state word instead of two fields
+ *
+ * The Car in abs_vs_encap.java keeps its state in two separate fields:
+ *
+ *     if (fuelLevel > 0) {          // 1. read fuel
+ *         isEngineRunning = true;   // 2. write running flag
+ *     }
+ *
+ * That is fine for one thread. With several threads controlling the same car:
+ *     Thread A reads fuelLevel = 10 and is about to start the engine
+ *     Thread B calls setFuelLevel(0)
+ *     Thread A sets isEngineRunning = true
+ * Now the engine is running with an empty tank. Nothing is volatile either, so
+ * another thread may not even see the new values.
+ *
+ * Fix idea: pack the whole state into ONE long and change it with
+ * compare-and-set (CAS). A reader always sees fuel and running flag together,
+ * and a writer only succeeds if nobody changed the state in between.
+ *
+ *     63                       32 31                          0
+ *     +--------------------------+-----------------------------+
+ *     |   flags (bit 32=running) |        fuel level           |
+ *     +--------------------------+-----------------------------+
+ *
+ * CAS loop:
+ *     1. read the current word
+ *     2. compute the next word (or decide the transition is not allowed)
+ *     3. compareAndSet(current, next) -> if somebody else won, go to 1
+ *
+ * No locks: a thread that gets descheduled never blocks the others.
+ *
+ * Invariant we keep: the engine is never running with fuel == 0.
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Every transition tells the caller what actually happened,
+// instead of silently doing nothing like Car.startEngine() does.
+enum EngineOutcome {
+    STARTED,
+    ALREADY_RUNNING,
+    OUT_OF_FUEL,
+    STOPPED,
+    ALREADY_STOPPED
+}
+
+class AtomicCar extends Vehicle {
+    static final int MAX_FUEL = 100;
+
+    private static final long FUEL_MASK = 0xFFFF_FFFFL;
+    private static final long RUNNING_BIT = 1L << 32;
+
+    // fuel + running flag, always updated together
+    private final AtomicLong state;
+
+    public AtomicCar() {
+        this.state = new AtomicLong(pack(false, MAX_FUEL));
+    }
+
+    static long pack(boolean running, int fuel) {
+        return (running ? RUNNING_BIT : 0L) | (fuel & FUEL_MASK);
+    }
+
+    static boolean running(long word) {
+        return (word & RUNNING_BIT) != 0;
+    }
+
+    static int fuel(long word) {
+        return (int) (word & FUEL_MASK);
+    }
+
+    public EngineOutcome tryStartEngine() {
+        for (;;) {
+            long current = state.get();
+            if (running(current)) {
+                return EngineOutcome.ALREADY_RUNNING;
+            }
+            if (fuel(current) == 0) {
+                return EngineOutcome.OUT_OF_FUEL;
+            }
+            if (state.compareAndSet(current, current | RUNNING_BIT)) {
+                return EngineOutcome.STARTED;
+            }
+            // lost the race, read again
+        }
+    }
+
+    public EngineOutcome tryStopEngine() {
+        for (;;) {
+            long current = state.get();
+            if (!running(current)) {
+                return EngineOutcome.ALREADY_STOPPED;
+            }
+            if (state.compareAndSet(current, current & ~RUNNING_BIT)) {
+                return EngineOutcome.STOPPED;
+            }
+        }
+    }
+
+    @Override
+    void startEngine() {
+        System.out.println("Car engine: " + tryStartEngine());
+    }
+
+    @Override
+    void stopEngine() {
+        System.out.println("Car engine: " + tryStopEngine());
+    }
+
+    public boolean isEngineRunning() {
+        return running(state.get());
+    }
+
+    public int getFuelLevel() {
+        return fuel(state.get());
+    }
+
+    // Reading the packed word once gives a consistent view of both values.
+    public long snapshot() {
+        return state.get();
+    }
+
+    // Same validation as Car.setFuelLevel(). Draining the tank while the
+    // engine runs stops the engine in the same CAS, so the invariant holds.
+    public boolean setFuelLevel(int level) {
+        return swapFuel(level) >= 0;
+    }
+
+    // Returns the state word that was replaced, or -1 if the level is invalid.
+    // Callers can tell from it whether this update is the one that stopped the engine.
+    long swapFuel(int level) {
+        if (level < 0 || level > MAX_FUEL) {
+            return -1;
+        }
+        for (;;) {
+            long current = state.get();
+            boolean keepRunning = running(current) && level > 0;
+            if (state.compareAndSet(current, pack(keepRunning, level))) {
+                return current;
+            }
+        }
+    }
+}
+
+// The "obvious" fix for comparison: one lock around every method.
+class SynchronizedCar extends Vehicle {
+    private boolean isEngineRunning;
+    private int fuelLevel = AtomicCar.MAX_FUEL;
+
+    public synchronized EngineOutcome tryStartEngine() {
+        if (isEngineRunning) {
+            return EngineOutcome.ALREADY_RUNNING;
+        }
+        if (fuelLevel == 0) {
+            return EngineOutcome.OUT_OF_FUEL;
+        }
+        isEngineRunning = true;
+        return EngineOutcome.STARTED;
+    }
+
+    public synchronized EngineOutcome tryStopEngine() {
+        if (!isEngineRunning) {
+            return EngineOutcome.ALREADY_STOPPED;
+        }
+        isEngineRunning = false;
+        return EngineOutcome.STOPPED;
+    }
+
+    @Override
+    void startEngine() {
+        System.out.println("Car engine: " + tryStartEngine());
+    }
+
+    @Override
+    void stopEngine() {
+        System.out.println("Car engine: " + tryStopEngine());
+    }
+
+    public synchronized boolean isEngineRunning() {
+        return isEngineRunning;
+    }
+
+    public synchronized int getFuelLevel() {
+        return fuelLevel;
+    }
+
+    public synchronized boolean setFuelLevel(int level) {
+        if (level < 0 || level > AtomicCar.MAX_FUEL) {
+            return false;
+        }
+        fuelLevel = level;
+        if (level == 0) {
+            isEngineRunning = false;
+        }
+        return true;
+    }
+}
+
+class ConcurrentVehicleDemo {
+    static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    static final int OPS_PER_THREAD = 2_000_000;
+    static final int STRESS_OPS_PER_THREAD = 200_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        AtomicCar car = new AtomicCar();
+        car.startEngine(); // Car engine: STARTED
+        car.startEngine(); // Car engine: ALREADY_RUNNING
+        car.setFuelLevel(0); // engine stops together with the fuel change
+        car.startEngine(); // Car engine: OUT_OF_FUEL
+
+        stressTest();
+
+        System.out.println("\nThroughput with " + THREADS + " threads:");
+        long atomicNanos = timeAtomic();
+        long syncNanos = timeSynchronized();
+        System.out.printf("AtomicCar       %,d ms%n", atomicNanos / 1_000_000);
+        System.out.printf("SynchronizedCar %,d ms%n", syncNanos / 1_000_000);
+    }
+
+    /*
+     * Stress test:
+     * - worker threads randomly start, stop and refuel the same car
+     * - a checker thread keeps reading snapshots; running with 0 fuel is a bug
+     * - at the end, STARTED - STOPPED - DRAINED must be 1 if the engine is running, else 0
+     *   (every successful start is matched by a stop or by draining the tank)
+     */
+    static void stressTest() throws InterruptedException {
+        AtomicCar car = new AtomicCar();
+        LongAdder started = new LongAdder();
+        LongAdder stopped = new LongAdder();
+        LongAdder drained = new LongAdder();
+        LongAdder violations = new LongAdder();
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[THREADS];
+
+        for (int t = 0; t < THREADS; t++) {
+            workers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                awaitQuietly(go);
+                for (int i = 0; i < STRESS_OPS_PER_THREAD; i++) {
+                    int op = random.nextInt(3);
+                    if (op == 0) {
+                        if (car.tryStartEngine() == EngineOutcome.STARTED) {
+                            started.increment();
+                        }
+                    } else if (op == 1) {
+                        if (car.tryStopEngine() == EngineOutcome.STOPPED) {
+                            stopped.increment();
+                        }
+                    } else {
+                        drainOrRefuel(car, random.nextInt(AtomicCar.MAX_FUEL + 1), drained);
+                    }
+                }
+            });
+            workers[t].start();
+        }
+
+        Thread checker = new Thread(() -> {
+            awaitQuietly(go);
+            while (!Thread.currentThread().isInterrupted()) {
+                long word = car.snapshot();
+                if (AtomicCar.running(word) && AtomicCar.fuel(word) == 0) {
+                    violations.increment();
+                }
+            }
+        });
+        checker.start();
+
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        checker.interrupt();
+        checker.join();
+
+        long balance = started.sum() - stopped.sum() - drained.sum();
+        long expected = car.isEngineRunning() ? 1 : 0;
+        System.out.println("\nStress test: started=" + started.sum() + ", stopped=" + stopped.sum()
+                + ", drained=" + drained.sum() + ", invariant violations=" + violations.sum()
+                + ", balance ok=" + (balance == expected));
+    }
+
+    // A refuel to 0 stops a running engine; count it so the balance adds up.
+    private static void drainOrRefuel(AtomicCar car, int level, LongAdder drained) {
+        long previous = car.swapFuel(level);
+        if (level == 0 && AtomicCar.running(previous)) {
+            drained.increment();
+        }
+    }
+
+    static long timeAtomic() throws InterruptedException {
+        AtomicCar car = new AtomicCar();
+        return runThreads(() -> {
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                switch (i & 3) {
+                    case 0 -> car.tryStartEngine();
+                    case 1 -> car.isEngineRunning();
+                    case 2 -> car.tryStopEngine();
+                    default -> car.setFuelLevel(i % AtomicCar.MAX_FUEL + 1);
+                }
+            }
+        });
+    }
+
+    static long timeSynchronized() throws InterruptedException {
+        SynchronizedCar car = new SynchronizedCar();
+        return runThreads(() -> {
+            for (int i = 0; i < OPS_PER_THREAD; i++) {
+                switch (i & 3) {
+                    case 0 -> car.tryStartEngine();
+                    case 1 -> car.isEngineRunning();
+                    case 2 -> car.tryStopEngine();
+                    default -> car.setFuelLevel(i % AtomicCar.MAX_FUEL + 1);
+                }
+            }
+        });
+    }
+
+    private static long runThreads(Runnable body) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        long start = System.nanoTime();
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread(body);
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/*
+ * What to notice in the output:
+ * - invariant violations is always 0: fuel and running flag change together
+ * - the balance check holds: no start or stop is lost or double counted
+ * - under contention AtomicCar usually beats SynchronizedCar, because a failed
+ *   CAS just retries instead of parking the thread on a monitor. With one
+ *   thread the difference is small; the lock is then uncontended and cheap.
+ *
+ * Trade-off:
+ * CAS loops are great for small state that fits in one word.
+ * Once the state does not fit (e.g. several objects must change together),
+ * a lock is usually simpler and safer.
+ */
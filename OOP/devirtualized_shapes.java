@@ -0,0 +1,294 @@
+/*
+ * Devirtualization: bulk area computation without megamorphic calls
+ *
+ * Runtime polymorphism (polymorphism.java) has a cost that only shows up
+ * when you call the same method on MANY objects of MANY types:
+ *
+ *     for (Shape s : shapes) total += s.calculateArea();   // one call site
+ *
+ * The JIT profiles every call site and counts the receiver types it sees:
+ *     1 type   -> monomorphic: inline the method behind a cheap type check
+ *     2 types  -> bimorphic:   inline both behind an if / else
+ *     3+ types -> megamorphic: give up, do a real virtual call (vtable lookup)
+ *                             every iteration, no inlining, no loop optimizations
+ *
+ * With Shape, Circle and Rectangle in one list we are already at 3 types.
+ *
+ * Two ways around it:
+ *
+ * 1 - Partition by concrete type, then run one loop per type.
+ *     Each loop has its own call site that only ever sees one type,
+ *     so every loop is monomorphic and gets inlined.
+ *
+ * 2 - Sealed hierarchy + type switch.
+ *     A sealed interface lists ALL its implementations (permits ...).
+ *     The compiler knows the full set, so we can replace the virtual call
+ *     by type tests. Type tests are cheap, and the code for every case is inlined.
+ *     With Java 21 this is a pattern matching switch:
+ *
+ *         return switch (shape) {
+ *             case Disc d   -> Math.PI * d.radius() * d.radius();
+ *             case Box b    -> b.width() * b.height();
+ *             ...                                  // no default needed: sealed
+ *         };
+ *
+ *     On Java 17 the same thing is written as an instanceof chain (below).
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// ============ 1 - Partitioning the existing Shape hierarchy ============
+
+class ShapeBatch {
+    private final List<Circle> circles = new ArrayList<>();
+    private final List<Rectangle> rectangles = new ArrayList<>();
+    private final List<Shape> plainShapes = new ArrayList<>();
+    // subclasses we don't know about still work, just through the slow path
+    private final List<Shape> others = new ArrayList<>();
+
+    public ShapeBatch(List<? extends Shape> shapes) {
+        for (Shape shape : shapes) {
+            add(shape);
+        }
+    }
+
+    public void add(Shape shape) {
+        // exact class, not instanceof: a subclass of Circle may override calculateArea()
+        Class<?> type = shape.getClass();
+        if (type == Circle.class) {
+            circles.add((Circle) shape);
+        } else if (type == Rectangle.class) {
+            rectangles.add((Rectangle) shape);
+        } else if (type == Shape.class) {
+            plainShapes.add(shape);
+        } else {
+            others.add(shape);
+        }
+    }
+
+    public int size() {
+        return circles.size() + rectangles.size() + plainShapes.size() + others.size();
+    }
+
+    // Every loop below is its own call site and only ever sees one receiver type.
+    public long totalArea() {
+        long total = 0;
+        for (int i = 0; i < circles.size(); i++) {
+            total += circles.get(i).calculateArea();
+        }
+        for (int i = 0; i < rectangles.size(); i++) {
+            total += rectangles.get(i).calculateArea();
+        }
+        for (int i = 0; i < plainShapes.size(); i++) {
+            total += plainShapes.get(i).calculateArea();
+        }
+        for (int i = 0; i < others.size(); i++) {
+            total += others.get(i).calculateArea();
+        }
+        return total;
+    }
+}
+
+// ============ 2 - Sealed hierarchy ============
+
+sealed interface SealedShape permits Disc, Box, Square, Triangle, Ellipse, Hexagon, Trapezoid, Kite {
+    double area();
+}
+
+record Disc(double radius) implements SealedShape {
+    public double area() {
+        return Math.PI * radius * radius;
+    }
+}
+
+record Box(double width, double height) implements SealedShape {
+    public double area() {
+        return width * height;
+    }
+}
+
+record Square(double side) implements SealedShape {
+    public double area() {
+        return side * side;
+    }
+}
+
+record Triangle(double base, double height) implements SealedShape {
+    public double area() {
+        return 0.5 * base * height;
+    }
+}
+
+record Ellipse(double a, double b) implements SealedShape {
+    public double area() {
+        return Math.PI * a * b;
+    }
+}
+
+record Hexagon(double side) implements SealedShape {
+    public double area() {
+        return 1.5 * Math.sqrt(3) * side * side;
+    }
+}
+
+record Trapezoid(double top, double bottom, double height) implements SealedShape {
+    public double area() {
+        return 0.5 * (top + bottom) * height;
+    }
+}
+
+record Kite(double d1, double d2) implements SealedShape {
+    public double area() {
+        return 0.5 * d1 * d2;
+    }
+}
+
+class SealedShapeAreas {
+
+    // Baseline: virtual call through the interface, megamorphic with 3+ types.
+    static double totalAreaVirtual(List<SealedShape> shapes) {
+        double total = 0;
+        for (int i = 0; i < shapes.size(); i++) {
+            total += shapes.get(i).area();
+        }
+        return total;
+    }
+
+    // Type switch: a chain of type checks, every branch is inlined.
+    // The last case needs no check because the hierarchy is sealed.
+    static double totalAreaSwitch(List<SealedShape> shapes) {
+        double total = 0;
+        for (int i = 0; i < shapes.size(); i++) {
+            total += area(shapes.get(i));
+        }
+        return total;
+    }
+
+    static double area(SealedShape shape) {
+        if (shape instanceof Disc d) {
+            return Math.PI * d.radius() * d.radius();
+        } else if (shape instanceof Box b) {
+            return b.width() * b.height();
+        } else if (shape instanceof Square s) {
+            return s.side() * s.side();
+        } else if (shape instanceof Triangle t) {
+            return 0.5 * t.base() * t.height();
+        } else if (shape instanceof Ellipse e) {
+            return Math.PI * e.a() * e.b();
+        } else if (shape instanceof Hexagon h) {
+            return 1.5 * Math.sqrt(3) * h.side() * h.side();
+        } else if (shape instanceof Trapezoid t) {
+            return 0.5 * (t.top() + t.bottom()) * t.height();
+        } else {
+            Kite k = (Kite) shape;
+            return 0.5 * k.d1() * k.d2();
+        }
+    }
+
+    // Partition once, then one tight monomorphic loop per type.
+    // Worth it when the same list is summed many times, the partition cost is paid once.
+    static double totalAreaPartitioned(Partitioned p) {
+        double total = 0;
+        for (Disc d : p.discs) total += d.area();
+        for (Box b : p.boxes) total += b.area();
+        for (Square s : p.squares) total += s.area();
+        for (Triangle t : p.triangles) total += t.area();
+        for (Ellipse e : p.ellipses) total += e.area();
+        for (Hexagon h : p.hexagons) total += h.area();
+        for (Trapezoid t : p.trapezoids) total += t.area();
+        for (Kite k : p.kites) total += k.area();
+        return total;
+    }
+
+    static final class Partitioned {
+        final List<Disc> discs = new ArrayList<>();
+        final List<Box> boxes = new ArrayList<>();
+        final List<Square> squares = new ArrayList<>();
+        final List<Triangle> triangles = new ArrayList<>();
+        final List<Ellipse> ellipses = new ArrayList<>();
+        final List<Hexagon> hexagons = new ArrayList<>();
+        final List<Trapezoid> trapezoids = new ArrayList<>();
+        final List<Kite> kites = new ArrayList<>();
+
+        Partitioned(List<SealedShape> shapes) {
+            for (SealedShape shape : shapes) {
+                if (shape instanceof Disc d) discs.add(d);
+                else if (shape instanceof Box b) boxes.add(b);
+                else if (shape instanceof Square s) squares.add(s);
+                else if (shape instanceof Triangle t) triangles.add(t);
+                else if (shape instanceof Ellipse e) ellipses.add(e);
+                else if (shape instanceof Hexagon h) hexagons.add(h);
+                else if (shape instanceof Trapezoid t) trapezoids.add(t);
+                else kites.add((Kite) shape);
+            }
+        }
+    }
+}
+
+class DevirtualizedShapesDemo {
+    static final int SIZE = 1_000_000;
+    static final int REPS = 30;
+
+    public static void main(String[] args) {
+        List<Shape> shapes = List.of(new Shape(), new Circle(), new Rectangle(), new Circle());
+        System.out.println("ShapeBatch total area: " + new ShapeBatch(shapes).totalArea()); // 10+20+30+20 = 80
+
+        // Crude benchmark; benchmarks/SealedShapeBenchmark measures the same loops with proper forks.
+        // The virtual call site sees 2, 3, 5 and 8 types in turn, like a growing codebase.
+        System.out.println("\nns per shape   virtual   switch   partitioned");
+        for (int types : new int[] { 2, 3, 5, 8 }) {
+            List<SealedShape> mixed = randomShapes(types, SIZE);
+            SealedShapeAreas.Partitioned partitioned = new SealedShapeAreas.Partitioned(mixed);
+            double v = nanosPerShape(() -> SealedShapeAreas.totalAreaVirtual(mixed));
+            double s = nanosPerShape(() -> SealedShapeAreas.totalAreaSwitch(mixed));
+            double p = nanosPerShape(() -> SealedShapeAreas.totalAreaPartitioned(partitioned));
+            System.out.printf("%d types      %8.2f %8.2f %13.2f%n", types, v, s, p);
+        }
+    }
+
+    static List<SealedShape> randomShapes(int types, int size) {
+        Random random = new Random(42);
+        List<SealedShape> shapes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            double x = 1 + random.nextInt(10);
+            shapes.add(switch (random.nextInt(types)) {
+                case 0 -> new Disc(x);
+                case 1 -> new Box(x, x + 1);
+                case 2 -> new Square(x);
+                case 3 -> new Triangle(x, x + 2);
+                case 4 -> new Ellipse(x, x + 3);
+                case 5 -> new Hexagon(x);
+                case 6 -> new Trapezoid(x, x + 1, x + 2);
+                default -> new Kite(x, x + 4);
+            });
+        }
+        return shapes;
+    }
+
+    static double sink;
+
+    static double nanosPerShape(java.util.function.DoubleSupplier work) {
+        for (int i = 0; i < REPS; i++) {
+            sink += work.getAsDouble(); // warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < REPS; i++) {
+            sink += work.getAsDouble();
+        }
+        return (double) (System.nanoTime() - start) / REPS / SIZE;
+    }
+}
+
+/*
+ * What to expect:
+ * - 2 types: all three are close, the virtual call is bimorphic and inlined.
+ * - 3+ types: the virtual loop gets noticeably slower (megamorphic), the
+ *   type switch and partitioned loops stay almost flat.
+ * - Partitioned is the fastest because each loop touches one type only and
+ *   has no branches, but it needs the extra partition step up front.
+ *
+ * Rule of thumb: don't do this everywhere. Do it for hot loops over big
+ * mixed collections, where a profiler shows vtable/itable calls.
+ */
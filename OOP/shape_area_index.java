@@ -0,0 +1,501 @@
+/*
+ * Memoized areas + an in-memory B+ tree index over area
+ *
+ * Two problems with the shapes in polymorphism.java:
+ *
+ * 1 - calculateArea() recomputes the area on every call.
+ *     For an immutable shape the answer never changes, so compute it once
+ *     and cache it in a field (memoization). Same trick as String.hashCode().
+ *
+ * 2 - "Which shapes have an area between X and Y?" means checking every shape.
+ *     That is a full table scan (see db/indexing.sql). The database answer is
+ *     an index: a B-tree over the column, sorted, with a pointer to the row.
+ *     We do the same thing in memory:
+ *         column  = area
+ *         pointer = an int id into an array of shapes
+ *
+ * B+ tree in one picture (each node holds many keys, not just 2 like a binary tree):
+ *
+ *                    [ 40 | 90 ]                  <- inner node: separators only
+ *                  /      |      \
+ *     [10 20 30] -> [40 55 70] -> [90 95]         <- leaves: sorted keys, linked left to right
+ *
+ * Range query 50..92:
+ *     1. walk down from the root to the leaf that may contain 50   -> O(log n)
+ *     2. walk right through the linked leaves until area > 92       -> O(k) for k results
+ *
+ * Keys are primitive longs: (area << 32) | id. That keeps duplicates (many
+ * shapes share an area) apart and sorts by area first, and a node is just a
+ * long[] instead of an array of objects.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+// ============ 1 - Immutable shapes with memoized area ============
+
+/*
+ * Racy single-check idiom (like String.hashCode):
+ * - area == 0 means "not computed yet"
+ * - two threads may both compute it, but they get the same value,
+ *   and an int write is atomic, so nobody can see a half written value.
+ * No volatile, no lock. Only safe because the fields it depends on are final.
+ */
+final class ImmutableCircle extends Circle {
+    private final double radius;
+    private int area;
+
+    public ImmutableCircle(double radius) {
+        this.radius = radius;
+    }
+
+    public double getRadius() {
+        return radius;
+    }
+
+    @Override
+    public int calculateArea() {
+        int a = area;
+        if (a == 0) {
+            a = (int) Math.round(Math.PI * radius * radius);
+            area = a;
+        }
+        return a;
+    }
+}
+
+final class ImmutableRectangle extends Rectangle {
+    private final int width;
+    private final int height;
+    private int area;
+
+    public ImmutableRectangle(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int calculateArea() {
+        int a = area;
+        if (a == 0) {
+            a = width * height;
+            area = a;
+        }
+        return a;
+    }
+}
+
+// ============ 2 - B+ tree index over area ============
+
+/*
+ * Only index shapes whose area does not change (the immutable ones above).
+ * The area is read once on insert and remembered per id, so a removal always
+ * finds the right key.
+ *
+ * Deletes rebalance like inserts do, just the other way round. A node that
+ * drops below half full borrows a key from a sibling, or merges with it when
+ * both fit into one node. The merge takes a key out of the parent, which can
+ * underflow in turn, and an empty root gives its place to its only child.
+ * Without this, keys that keep growing (a sliding window of shapes) would
+ * leave a trail of empty leaves that every range query has to walk through.
+ */
+class AreaIndex {
+    private static final int ORDER = 64; // max keys per node
+    // a split leaves 32 keys in a leaf and 31 in an inner node, so these never trigger right after one
+    private static final int MIN_LEAF_KEYS = ORDER / 2;
+    private static final int MIN_INNER_KEYS = ORDER / 2 - 1;
+
+    private abstract static class Node {
+        final long[] keys = new long[ORDER];
+        int size;
+    }
+
+    private static final class Leaf extends Node {
+        Leaf next;
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children = new Node[ORDER + 1];
+    }
+
+    private Node root = new Leaf();
+    private int count;
+
+    // id -> shape and id -> area (the "rows" the index points to)
+    private Shape[] shapes = new Shape[16];
+    private int[] areas = new int[16];
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    // set by a node split, read by the parent
+    private long promotedKey;
+
+    static long key(int area, int id) {
+        return ((long) area << 32) | (id & 0xFFFF_FFFFL);
+    }
+
+    static int areaOf(long key) {
+        return (int) (key >> 32);
+    }
+
+    static int idOf(long key) {
+        return (int) key;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public Shape get(int id) {
+        return id >= 0 && id < nextId ? shapes[id] : null;
+    }
+
+    // ============ insert: O(log n) ============
+
+    public int insert(Shape shape) {
+        int id = allocateId();
+        int area = shape.calculateArea();
+        shapes[id] = shape;
+        areas[id] = area;
+
+        Node right = insert(root, key(area, id));
+        if (right != null) {
+            Inner newRoot = new Inner();
+            newRoot.keys[0] = promotedKey;
+            newRoot.children[0] = root;
+            newRoot.children[1] = right;
+            newRoot.size = 1;
+            root = newRoot;
+        }
+        count++;
+        return id;
+    }
+
+    // Returns the new right sibling if the node split, null otherwise.
+    private Node insert(Node node, long key) {
+        if (node instanceof Leaf leaf) {
+            int pos = lowerBound(leaf.keys, leaf.size, key);
+            System.arraycopy(leaf.keys, pos, leaf.keys, pos + 1, leaf.size - pos);
+            leaf.keys[pos] = key;
+            leaf.size++;
+            return leaf.size == ORDER ? splitLeaf(leaf) : null;
+        }
+
+        Inner inner = (Inner) node;
+        int child = upperBound(inner.keys, inner.size, key);
+        Node right = insert(inner.children[child], key);
+        if (right == null) {
+            return null;
+        }
+        System.arraycopy(inner.keys, child, inner.keys, child + 1, inner.size - child);
+        System.arraycopy(inner.children, child + 1, inner.children, child + 2, inner.size - child);
+        inner.keys[child] = promotedKey;
+        inner.children[child + 1] = right;
+        inner.size++;
+        return inner.size == ORDER ? splitInner(inner) : null;
+    }
+
+    private Leaf splitLeaf(Leaf leaf) {
+        int half = leaf.size / 2;
+        Leaf right = new Leaf();
+        right.size = leaf.size - half;
+        System.arraycopy(leaf.keys, half, right.keys, 0, right.size);
+        leaf.size = half;
+        right.next = leaf.next;
+        leaf.next = right;
+        promotedKey = right.keys[0];
+        return right;
+    }
+
+    // The middle key moves up to the parent, it is not kept in either half.
+    private Inner splitInner(Inner inner) {
+        int mid = inner.size / 2;
+        Inner right = new Inner();
+        right.size = inner.size - mid - 1;
+        System.arraycopy(inner.keys, mid + 1, right.keys, 0, right.size);
+        System.arraycopy(inner.children, mid + 1, right.children, 0, right.size + 1);
+        Arrays.fill(inner.children, mid + 1, inner.size + 1, null);
+        promotedKey = inner.keys[mid];
+        inner.size = mid;
+        return right;
+    }
+
+    // ============ delete: O(log n) ============
+
+    public boolean remove(int id) {
+        if (id < 0 || id >= nextId || shapes[id] == null) {
+            return false;
+        }
+        if (!remove(root, key(areas[id], id))) {
+            return false;
+        }
+        if (root instanceof Inner inner && inner.size == 0) {
+            root = inner.children[0]; // the tree gets one level shorter
+        }
+        shapes[id] = null;
+        releaseId(id);
+        count--;
+        return true;
+    }
+
+    // Returns false if the key wasn't there. Fixes an underfull child on the way back up.
+    private boolean remove(Node node, long key) {
+        if (node instanceof Leaf leaf) {
+            int pos = lowerBound(leaf.keys, leaf.size, key);
+            if (pos == leaf.size || leaf.keys[pos] != key) {
+                return false;
+            }
+            System.arraycopy(leaf.keys, pos + 1, leaf.keys, pos, leaf.size - pos - 1);
+            leaf.size--;
+            return true;
+        }
+
+        Inner inner = (Inner) node;
+        int child = upperBound(inner.keys, inner.size, key);
+        if (!remove(inner.children[child], key)) {
+            return false;
+        }
+        Node changed = inner.children[child];
+        int min = changed instanceof Leaf ? MIN_LEAF_KEYS : MIN_INNER_KEYS;
+        if (changed.size < min) {
+            // rebalance with the left sibling if there is one, else with the right one
+            int left = child > 0 ? child - 1 : child;
+            if (changed instanceof Leaf) {
+                rebalanceLeaves(inner, left);
+            } else {
+                rebalanceInners(inner, left);
+            }
+        }
+        return true;
+    }
+
+    /*
+     * children[j] and children[j + 1] of parent, one of them underfull.
+     * Merge them if the keys fit into one leaf, otherwise move one key over
+     * from the fuller one. keys[j] stays the first key of the right leaf.
+     */
+    private static void rebalanceLeaves(Inner parent, int j) {
+        Leaf left = (Leaf) parent.children[j];
+        Leaf right = (Leaf) parent.children[j + 1];
+        if (left.size + right.size < ORDER) {
+            System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+            left.size += right.size;
+            left.next = right.next; // unlink the emptied leaf from the chain
+            removeChild(parent, j);
+        } else if (left.size > right.size) {
+            System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+            right.keys[0] = left.keys[--left.size];
+            right.size++;
+            parent.keys[j] = right.keys[0];
+        } else {
+            left.keys[left.size++] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, --right.size);
+            parent.keys[j] = right.keys[0];
+        }
+    }
+
+    // Same for inner nodes, except the separator in the parent moves down / up ("rotation").
+    private static void rebalanceInners(Inner parent, int j) {
+        Inner left = (Inner) parent.children[j];
+        Inner right = (Inner) parent.children[j + 1];
+        if (left.size + 1 + right.size < ORDER) {
+            left.keys[left.size] = parent.keys[j];
+            System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+            System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+            left.size += right.size + 1;
+            removeChild(parent, j);
+        } else if (left.size > right.size) {
+            System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+            System.arraycopy(right.children, 0, right.children, 1, right.size + 1);
+            right.keys[0] = parent.keys[j];
+            right.children[0] = left.children[left.size];
+            right.size++;
+            parent.keys[j] = left.keys[left.size - 1];
+            left.children[left.size] = null;
+            left.size--;
+        } else {
+            left.keys[left.size] = parent.keys[j];
+            left.children[left.size + 1] = right.children[0];
+            left.size++;
+            parent.keys[j] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            System.arraycopy(right.children, 1, right.children, 0, right.size);
+            right.children[right.size] = null;
+            right.size--;
+        }
+    }
+
+    // After a merge: drop separator keys[j] and the right child children[j + 1].
+    private static void removeChild(Inner parent, int j) {
+        System.arraycopy(parent.keys, j + 1, parent.keys, j, parent.size - j - 1);
+        System.arraycopy(parent.children, j + 2, parent.children, j + 1, parent.size - j - 1);
+        parent.children[parent.size] = null;
+        parent.size--;
+    }
+
+    // ============ range queries: O(log n + k) ============
+
+    public void forEachInRange(int minArea, int maxArea, Consumer<Shape> action) {
+        if (minArea > maxArea) {
+            return;
+        }
+        long from = key(minArea, 0);
+        Leaf leaf = findLeaf(from);
+        int pos = lowerBound(leaf.keys, leaf.size, from);
+        while (leaf != null) {
+            for (; pos < leaf.size; pos++) {
+                long key = leaf.keys[pos];
+                if (areaOf(key) > maxArea) {
+                    return;
+                }
+                action.accept(shapes[idOf(key)]);
+            }
+            leaf = leaf.next;
+            pos = 0;
+        }
+    }
+
+    public List<Shape> findInRange(int minArea, int maxArea) {
+        List<Shape> result = new ArrayList<>();
+        forEachInRange(minArea, maxArea, result::add);
+        return result;
+    }
+
+    public int countInRange(int minArea, int maxArea) {
+        int[] n = new int[1];
+        forEachInRange(minArea, maxArea, shape -> n[0]++);
+        return n[0];
+    }
+
+    // ============ helpers ============
+
+    private Leaf findLeaf(long key) {
+        Node node = root;
+        while (node instanceof Inner inner) {
+            node = inner.children[upperBound(inner.keys, inner.size, key)];
+        }
+        return (Leaf) node;
+    }
+
+    // first position with keys[pos] >= key
+    private static int lowerBound(long[] keys, int size, long key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // first position with keys[pos] > key, i.e. the child to descend into
+    private static int upperBound(long[] keys, int size, long key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int allocateId() {
+        if (freeCount > 0) {
+            return freeIds[--freeCount];
+        }
+        if (nextId == shapes.length) {
+            shapes = Arrays.copyOf(shapes, nextId * 2);
+            areas = Arrays.copyOf(areas, nextId * 2);
+        }
+        return nextId++;
+    }
+
+    private void releaseId(int id) {
+        if (freeCount == freeIds.length) {
+            freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        }
+        freeIds[freeCount++] = id;
+    }
+}
+
+class ShapeAreaIndexDemo {
+    public static void main(String[] args) {
+        AreaIndex index = new AreaIndex();
+        int small = index.insert(new ImmutableRectangle(2, 3)); // area 6
+        index.insert(new ImmutableCircle(2)); // area 13
+        index.insert(new ImmutableRectangle(4, 5)); // area 20
+        System.out.println("Area 5..15: " + index.countInRange(5, 15)); // 2
+        index.remove(small);
+        System.out.println("Area 5..15 after remove: " + index.countInRange(5, 15)); // 1
+
+        // Scan vs index on a million shapes
+        int n = 1_000_000;
+        Random random = new Random(7);
+        List<Shape> all = new ArrayList<>(n);
+        AreaIndex big = new AreaIndex();
+        for (int i = 0; i < n; i++) {
+            Shape shape = random.nextBoolean()
+                    ? new ImmutableCircle(1 + random.nextInt(500))
+                    : new ImmutableRectangle(1 + random.nextInt(800), 1 + random.nextInt(800));
+            all.add(shape);
+            big.insert(shape);
+        }
+
+        int queries = 200;
+        long scanHits = 0;
+        long indexHits = 0;
+        long start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            int lo = q * 100;
+            for (Shape shape : all) {
+                int area = shape.calculateArea();
+                if (area >= lo && area <= lo + 500) {
+                    scanHits++;
+                }
+            }
+        }
+        long scanNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int q = 0; q < queries; q++) {
+            int lo = q * 100;
+            indexHits += big.countInRange(lo, lo + 500);
+        }
+        long indexNanos = System.nanoTime() - start;
+
+        System.out.printf("Full scan: %,d hits in %,d ms%n", scanHits, scanNanos / 1_000_000);
+        System.out.printf("Index:     %,d hits in %,d ms%n", indexHits, indexNanos / 1_000_000);
+    }
+}
+
+/*
+ * Same trade-offs as a database index:
+ * + range queries touch only the matching part of the data
+ * - every insert / delete also has to update the tree, and now and then
+ *   split or merge a node
+ * - extra memory: one long per shape plus the inner nodes
+ *
+ * And the memoization only works because the shapes are immutable.
+ * If a shape could change its size, both the cached area and its
+ * position in the index would silently go stale.
+ */
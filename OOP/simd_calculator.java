@@ -0,0 +1,501 @@
+/*
+ * SIMD Calculator: bulk overloads with the Vector API
+ *
+ * Calculator in polymorphism.java adds two or three numbers per call.
+ * Summing a big array with it looks like this:
+ *
+ *     int sum = 0;
+ *     for (int v : values) sum = calc.add(sum, v);   // one element per step
+ *
+ * Modern CPUs have SIMD (Single Instruction, Multiple Data) registers.
+ * One instruction adds 4, 8 or 16 numbers at once:
+ *
+ *     scalar:  a0+b0, a1+b1, a2+b2, a3+b3   -> 4 instructions
+ *     SIMD:    [a0 a1 a2 a3] + [b0 b1 b2 b3] -> 1 instruction
+ *
+ * Java exposes this through jdk.incubator.vector (incubator module in JDK 17+):
+ *     IntVector.SPECIES_PREFERRED -> the widest vector the CPU supports
+ *     IntVector.fromArray(...)    -> load lanes from an array
+ *     a.add(b), a.mul(b)          -> lane-wise math
+ *     reduceLanes(ADD)            -> horizontal sum of all lanes
+ *
+ * Compile / run with:
+ *     javac --add-modules jdk.incubator.vector ...
+ *     java  --add-modules jdk.incubator.vector SimdCalculatorDemo
+ *
+ * Shape of every bulk method:
+ *     1. vector loop over the part of the array that fills whole vectors
+ *     2. scalar loop over the tail (the leftover < one vector of elements)
+ * When the CPU has no SIMD (species length 1) or -Dcalculator.scalar=true is
+ * set, everything takes the scalar path.
+ *
+ * These are still overloads of add(): same name, different parameters.
+ * Compile time polymorphism, just on arrays instead of scalars.
+ */
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+class BulkCalculator extends Calculator {
+    private static final VectorSpecies<Integer> INT = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONG = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLE = DoubleVector.SPECIES_PREFERRED;
+
+    // Same bit width as INT, so one int vector converts into exactly two long vectors.
+    private static final VectorSpecies<Long> INT_WIDENED = VectorSpecies.of(long.class, INT.vectorShape());
+
+    static final boolean VECTORIZED = INT.length() > 1 && !Boolean.getBoolean("calculator.scalar");
+
+    // ============ Array add: result[i] = a[i] + b[i] ============
+
+    public int[] add(int[] a, int[] b) {
+        checkSameLength(a.length, b.length);
+        int[] result = new int[a.length];
+        int i = 0;
+        if (VECTORIZED) {
+            for (int bound = INT.loopBound(a.length); i < bound; i += INT.length()) {
+                IntVector va = IntVector.fromArray(INT, a, i);
+                IntVector vb = IntVector.fromArray(INT, b, i);
+                va.add(vb).intoArray(result, i);
+            }
+        }
+        for (; i < a.length; i++) {
+            result[i] = a[i] + b[i];
+        }
+        return result;
+    }
+
+    public long[] add(long[] a, long[] b) {
+        checkSameLength(a.length, b.length);
+        long[] result = new long[a.length];
+        int i = 0;
+        if (VECTORIZED) {
+            for (int bound = LONG.loopBound(a.length); i < bound; i += LONG.length()) {
+                LongVector va = LongVector.fromArray(LONG, a, i);
+                LongVector vb = LongVector.fromArray(LONG, b, i);
+                va.add(vb).intoArray(result, i);
+            }
+        }
+        for (; i < a.length; i++) {
+            result[i] = a[i] + b[i];
+        }
+        return result;
+    }
+
+    public double[] add(double[] a, double[] b) {
+        checkSameLength(a.length, b.length);
+        double[] result = new double[a.length];
+        int i = 0;
+        if (VECTORIZED) {
+            for (int bound = DOUBLE.loopBound(a.length); i < bound; i += DOUBLE.length()) {
+                DoubleVector va = DoubleVector.fromArray(DOUBLE, a, i);
+                DoubleVector vb = DoubleVector.fromArray(DOUBLE, b, i);
+                va.add(vb).intoArray(result, i);
+            }
+        }
+        for (; i < a.length; i++) {
+            result[i] = a[i] + b[i];
+        }
+        return result;
+    }
+
+    // ============ Sum of one array: add(values) ============
+
+    // Wraps on overflow, exactly like chaining add(int, int).
+    public int add(int[] values) {
+        int sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            IntVector acc = IntVector.zero(INT);
+            for (int bound = INT.loopBound(values.length); i < bound; i += INT.length()) {
+                acc = acc.add(IntVector.fromArray(INT, values, i));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    public long add(long[] values) {
+        long sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            LongVector acc = LongVector.zero(LONG);
+            for (int bound = LONG.loopBound(values.length); i < bound; i += LONG.length()) {
+                acc = acc.add(LongVector.fromArray(LONG, values, i));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    // Note: the vector path adds lanes in a different order than the scalar loop,
+    // so the last bits of a double sum can differ. Floating point addition is not associative.
+    public double add(double[] values) {
+        double sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            DoubleVector acc = DoubleVector.zero(DOUBLE);
+            for (int bound = DOUBLE.loopBound(values.length); i < bound; i += DOUBLE.length()) {
+                acc = acc.add(DoubleVector.fromArray(DOUBLE, values, i));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    // ============ Dot-sum: sum of a[i] * b[i] ============
+
+    // Wraps on overflow like int multiplication does, see dotExact() for the checked form.
+    public int dot(int[] a, int[] b) {
+        checkSameLength(a.length, b.length);
+        int sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            IntVector acc = IntVector.zero(INT);
+            for (int bound = INT.loopBound(a.length); i < bound; i += INT.length()) {
+                IntVector va = IntVector.fromArray(INT, a, i);
+                IntVector vb = IntVector.fromArray(INT, b, i);
+                acc = va.mul(vb).add(acc);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public long dot(long[] a, long[] b) {
+        checkSameLength(a.length, b.length);
+        long sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            LongVector acc = LongVector.zero(LONG);
+            for (int bound = LONG.loopBound(a.length); i < bound; i += LONG.length()) {
+                LongVector va = LongVector.fromArray(LONG, a, i);
+                LongVector vb = LongVector.fromArray(LONG, b, i);
+                acc = va.mul(vb).add(acc);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    public double dot(double[] a, double[] b) {
+        checkSameLength(a.length, b.length);
+        double sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            DoubleVector acc = DoubleVector.zero(DOUBLE);
+            for (int bound = DOUBLE.loopBound(a.length); i < bound; i += DOUBLE.length()) {
+                DoubleVector va = DoubleVector.fromArray(DOUBLE, a, i);
+                DoubleVector vb = DoubleVector.fromArray(DOUBLE, b, i);
+                acc = va.fma(vb, acc); // fused multiply-add: a*b+acc with one rounding
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum = Math.fma(a[i], b[i], sum);
+        }
+        return sum;
+    }
+
+    // ============ Fused reductions ============
+    // add(a, b) followed by add(result) walks memory twice and allocates an array.
+    // The fused form does both in one pass with no allocation: sum of (a[i] + b[i]).
+
+    // Wraps on overflow, see addAndSumExact() for the checked form.
+    public int addAndSum(int[] a, int[] b) {
+        checkSameLength(a.length, b.length);
+        int sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            IntVector acc = IntVector.zero(INT);
+            for (int bound = INT.loopBound(a.length); i < bound; i += INT.length()) {
+                acc = acc.add(IntVector.fromArray(INT, a, i)).add(IntVector.fromArray(INT, b, i));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum += a[i] + b[i];
+        }
+        return sum;
+    }
+
+    public long addAndSum(long[] a, long[] b) {
+        checkSameLength(a.length, b.length);
+        long sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            LongVector acc = LongVector.zero(LONG);
+            for (int bound = LONG.loopBound(a.length); i < bound; i += LONG.length()) {
+                acc = acc.add(LongVector.fromArray(LONG, a, i)).add(LongVector.fromArray(LONG, b, i));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum += a[i] + b[i];
+        }
+        return sum;
+    }
+
+    public double addAndSum(double[] a, double[] b) {
+        checkSameLength(a.length, b.length);
+        double sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            DoubleVector acc = DoubleVector.zero(DOUBLE);
+            for (int bound = DOUBLE.loopBound(a.length); i < bound; i += DOUBLE.length()) {
+                acc = acc.add(DoubleVector.fromArray(DOUBLE, a, i)).add(DoubleVector.fromArray(DOUBLE, b, i));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum += a[i] + b[i];
+        }
+        return sum;
+    }
+
+    // ============ Overflow-checked int variants ============
+    // Same contract as Math.addExact(): throw ArithmeticException instead of wrapping.
+
+    /*
+     * Element-wise: r = a + b overflowed exactly when a and b have the same sign
+     * and r has the other sign, i.e. ((a ^ r) & (b ^ r)) < 0.
+     * We OR that value over all lanes and check the sign bit once at the end,
+     * so the hot loop has no branch.
+     */
+    public int[] addExact(int[] a, int[] b) {
+        checkSameLength(a.length, b.length);
+        int[] result = new int[a.length];
+        int overflow = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            IntVector flags = IntVector.zero(INT);
+            for (int bound = INT.loopBound(a.length); i < bound; i += INT.length()) {
+                IntVector va = IntVector.fromArray(INT, a, i);
+                IntVector vb = IntVector.fromArray(INT, b, i);
+                IntVector vr = va.add(vb);
+                flags = flags.or(va.lanewise(VectorOperators.XOR, vr).and(vb.lanewise(VectorOperators.XOR, vr)));
+                vr.intoArray(result, i);
+            }
+            overflow = flags.reduceLanes(VectorOperators.OR);
+        }
+        for (; i < a.length; i++) {
+            int r = a[i] + b[i];
+            overflow |= (a[i] ^ r) & (b[i] ^ r);
+            result[i] = r;
+        }
+        if (overflow < 0) {
+            throw new ArithmeticException("integer overflow");
+        }
+        return result;
+    }
+
+    /*
+     * Sum: partial sums per lane may overflow even when the total fits,
+     * so each int vector is widened into two long vectors and summed as long.
+     * Only the final total is checked against the int range.
+     */
+    public int addExact(int[] values) {
+        long sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            LongVector acc = LongVector.zero(INT_WIDENED);
+            for (int bound = INT.loopBound(values.length); i < bound; i += INT.length()) {
+                IntVector v = IntVector.fromArray(INT, values, i);
+                acc = acc.add(widen(v, 0)).add(widen(v, 1));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < values.length; i++) {
+            sum += values[i];
+        }
+        return Math.toIntExact(sum);
+    }
+
+    /*
+     * Same widening as addExact(int[]): a[i] + b[i] fits in 33 bits and an array
+     * has fewer than 2^31 elements, so the long sum cannot overflow. Only the
+     * total is checked against the int range.
+     */
+    public int addAndSumExact(int[] a, int[] b) {
+        checkSameLength(a.length, b.length);
+        long sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            LongVector acc = LongVector.zero(INT_WIDENED);
+            for (int bound = INT.loopBound(a.length); i < bound; i += INT.length()) {
+                IntVector va = IntVector.fromArray(INT, a, i);
+                IntVector vb = IntVector.fromArray(INT, b, i);
+                acc = acc.add(widen(va, 0)).add(widen(va, 1)).add(widen(vb, 0)).add(widen(vb, 1));
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < a.length; i++) {
+            sum += (long) a[i] + b[i];
+        }
+        return Math.toIntExact(sum);
+    }
+
+    /*
+     * Products are widened to long before multiplying, so a single product
+     * never overflows (|a*b| <= 2^62). Four such products already overflow
+     * a long, though, so the per-lane accumulators are checked with the same
+     * sign trick as addExact(int[], int[]) and the lanes are combined with
+     * Math.addExact().
+     */
+    public int dotExact(int[] a, int[] b) {
+        checkSameLength(a.length, b.length);
+        long sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            LongVector acc = LongVector.zero(INT_WIDENED);
+            LongVector flags = LongVector.zero(INT_WIDENED);
+            for (int bound = INT.loopBound(a.length); i < bound; i += INT.length()) {
+                IntVector va = IntVector.fromArray(INT, a, i);
+                IntVector vb = IntVector.fromArray(INT, b, i);
+                for (int part = 0; part < 2; part++) {
+                    LongVector product = widen(va, part).mul(widen(vb, part));
+                    LongVector next = acc.add(product);
+                    flags = flags.or(acc.lanewise(VectorOperators.XOR, next)
+                            .and(product.lanewise(VectorOperators.XOR, next)));
+                    acc = next;
+                }
+            }
+            if (flags.reduceLanes(VectorOperators.OR) < 0) {
+                throw new ArithmeticException("integer overflow");
+            }
+            for (long lane : acc.toArray()) {
+                sum = Math.addExact(sum, lane);
+            }
+        }
+        for (; i < a.length; i++) {
+            sum = Math.addExact(sum, (long) a[i] * b[i]);
+        }
+        return Math.toIntExact(sum);
+    }
+
+    private static LongVector widen(IntVector v, int part) {
+        return (LongVector) v.convertShape(VectorOperators.I2L, INT_WIDENED, part);
+    }
+
+    // Masked variant: adds only the elements whose mask entry is true.
+    // Shows how a vector compare + mask replaces an if inside the loop.
+    public int addWhereGreaterThan(int[] values, int threshold) {
+        int sum = 0;
+        int i = 0;
+        if (VECTORIZED) {
+            IntVector acc = IntVector.zero(INT);
+            for (int bound = INT.loopBound(values.length); i < bound; i += INT.length()) {
+                IntVector v = IntVector.fromArray(INT, values, i);
+                VectorMask<Integer> keep = v.compare(VectorOperators.GT, threshold);
+                acc = acc.add(v, keep);
+            }
+            sum = acc.reduceLanes(VectorOperators.ADD);
+        }
+        for (; i < values.length; i++) {
+            if (values[i] > threshold) {
+                sum += values[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void checkSameLength(int a, int b) {
+        if (a != b) {
+            throw new IllegalArgumentException("Arrays must have the same length: " + a + " != " + b);
+        }
+    }
+}
+
+class SimdCalculatorDemo {
+    public static void main(String[] args) {
+        BulkCalculator calc = new BulkCalculator();
+        System.out.println("Vectorized: " + BulkCalculator.VECTORIZED + " (int lanes: "
+                + IntVector.SPECIES_PREFERRED.length() + ")");
+
+        int[] a = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10 };
+        int[] b = { 10, 9, 8, 7, 6, 5, 4, 3, 2, 1 };
+        System.out.println("add(a)        = " + calc.add(a)); // 55
+        System.out.println("dot(a, b)     = " + calc.dot(a, b)); // 220
+        System.out.println("addAndSum     = " + calc.addAndSum(a, b)); // 110
+        System.out.println("add(int,int)  = " + calc.add(1, 2)); // the old scalar overloads still work
+
+        try {
+            calc.addExact(new int[] { Integer.MAX_VALUE, 1 });
+        } catch (ArithmeticException e) {
+            System.out.println("addExact      -> " + e.getMessage());
+        }
+        int[] big = { 50_000, 50_000 };
+        System.out.println("dot(big, big) = " + calc.dot(big, big) + " (wrapped)");
+        try {
+            calc.dotExact(big, big);
+        } catch (ArithmeticException e) {
+            System.out.println("dotExact      -> " + e.getMessage());
+        }
+
+        // Quick timing against the scalar add loop.
+        // For numbers you want to publish, use the bulk* benchmarks in
+        // benchmarks/CalculatorBenchmark instead: this loop has no fork
+        // isolation and only a crude warm up.
+        for (int size : new int[] { 16, 1_024, 65_536, 1_048_576 }) {
+            int[] values = new int[size];
+            for (int i = 0; i < size; i++) {
+                values[i] = i % 1000;
+            }
+            int reps = Math.max(10, 50_000_000 / size);
+            long scalar = time(() -> scalarSum(calc, values), reps);
+            long bulk = time(() -> calc.add(values), reps);
+            System.out.printf("size %,10d: scalar add loop %6.2f ns/elem, bulk add %6.2f ns/elem%n",
+                    size, (double) scalar / reps / size, (double) bulk / reps / size);
+        }
+    }
+
+    // The "before" picture: one Calculator.add(int, int) call per element.
+    static int scalarSum(Calculator calc, int[] values) {
+        int sum = 0;
+        for (int v : values) {
+            sum = calc.add(sum, v);
+        }
+        return sum;
+    }
+
+    static int sink;
+
+    static long time(java.util.function.IntSupplier work, int reps) {
+        for (int i = 0; i < reps; i++) {
+            sink += work.getAsInt(); // warm up
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < reps; i++) {
+            sink += work.getAsInt();
+        }
+        return System.nanoTime() - start;
+    }
+}
+
+/*
+ * Takeaways:
+ * - SIMD pays off on big arrays; for a handful of elements the scalar loop is as fast.
+ * - The JIT can auto-vectorize simple loops too, but not reductions with
+ *   overflow checks or masks. The Vector API makes the intent explicit.
+ * - Results for int/long are identical to the scalar loop. For double the
+ *   summation order changes, so tiny rounding differences are expected.
+ */
@@ -0,0 +1,433 @@
+/*
+ * End-of-day statement job over BankAccounts: parallel, streaming, resumable
+ *
+ * Every night: compute the day's interest for every BankAccount
+ * (enacapulation.java) and write one statement line per account.
+ * The slow version:
+ *
+ *     for (BankAccount a : accounts)
+ *         writer.write(a.getAccountNumber() + "," + a.getBalance() * rate / 365 + "\n");
+ *
+ * - one thread for millions of accounts
+ * - double math on money: 0.1 + 0.2 != 0.3, cents get lost or invented
+ * - a few temporary Strings per line, all garbage right away
+ * - if it dies after 3 hours, it starts again from zero
+ *
+ * This job:
+ *
+ * 1 - Money as long cents. The balance is converted once (BankAccount keeps
+ *     a double), after that everything is exact integer math. Interest is
+ *     rounded half-even (banker's rounding) with integers only.
+ *
+ * 2 - Accounts are cut into chunks of a fixed size, in account number
+ *     order. A ForkJoinPool splits the chunk range in halves until one task
+ *     = one chunk, idle workers steal halves from busy ones.
+ *
+ * 3 - Each worker encodes lines straight into its own reusable 1 MB
+ *     ByteBuffer: digits and ASCII written byte by byte, no Strings.
+ *     A full buffer is written to the chunk's file with one FileChannel.write,
+ *     so the disk sees large sequential writes.
+ *
+ * 4 - Checkpoints: a chunk is written to part-N.tmp, forced to disk, then
+ *     renamed to part-N.csv in one atomic step. A part file that exists is
+ *     complete. A rerun skips those chunks and only does the rest.
+ *     At the end the parts are concatenated (FileChannel.transferTo) into
+ *     one statements file, and the work directory is removed.
+ *
+ * The job only WRITES statements, it does not deposit the interest.
+ * Posting interest twice would be a real bug; writing a line twice is not.
+ */
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Exact money math on long cents.
+class Interest {
+    static final long BASIS_POINTS = 10_000; // 350 basis points = 3.50 %
+
+    // BankAccount stores a double; convert once, at the edge.
+    static long toCents(double amount) {
+        return Math.round(amount * 100);
+    }
+
+    // One day of interest: cents * rate / (10,000 * 365), rounded half-even.
+    static long daily(long cents, int annualBasisPoints) {
+        long numerator = Math.multiplyExact(cents, annualBasisPoints); // throws instead of silently overflowing
+        long denominator = BASIS_POINTS * 365;
+        long quotient = Math.floorDiv(numerator, denominator);
+        long twiceRemainder = 2 * Math.floorMod(numerator, denominator);
+        if (twiceRemainder > denominator || (twiceRemainder == denominator && (quotient & 1) != 0)) {
+            quotient++;
+        }
+        return quotient;
+    }
+}
+
+/*
+ * Encodes statement lines into a ByteBuffer:
+ *     accountNumber,holder,opening,interest,closing\n      e.g.  1234567890,John Doe,1000.00,0.10,1000.10
+ * Amounts are written from long cents digit by digit, no Double.toString.
+ */
+class StatementEncoder {
+    private final byte[] digits = new byte[20];
+
+    // worst case bytes for one line, so the caller can flush before a line doesn't fit
+    // (3 amounts of up to 21 chars, 5 separators, 3 UTF-8 bytes per char, quotes)
+    static int maxLength(BankAccount account) {
+        return 3 * 21 + 5 + 3 * (account.getAccountNumber().length() + account.getAccountHolder().length()) + 4;
+    }
+
+    void encode(ByteBuffer out, BankAccount account, long openingCents, long interestCents) {
+        text(out, account.getAccountNumber());
+        out.put((byte) ',');
+        text(out, account.getAccountHolder());
+        out.put((byte) ',');
+        cents(out, openingCents);
+        out.put((byte) ',');
+        cents(out, interestCents);
+        out.put((byte) ',');
+        cents(out, openingCents + interestCents);
+        out.put((byte) '\n');
+    }
+
+    // ASCII byte by byte, quoted if it contains a comma or quote; UTF-8 only for the rare non-ASCII name
+    private static void text(ByteBuffer out, String value) {
+        boolean quote = false;
+        boolean ascii = true;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            quote |= c == ',' || c == '"' || c == '\n' || c == '\r';
+            ascii &= c < 0x80;
+        }
+        String field = quote ? '"' + value.replace("\"", "\"\"") + '"' : value;
+        if (!ascii) {
+            out.put(field.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            out.put((byte) field.charAt(i));
+        }
+    }
+
+    private void cents(ByteBuffer out, long cents) {
+        if (cents < 0) {
+            out.put((byte) '-');
+            cents = -cents;
+        }
+        long units = cents / 100;
+        int n = 0;
+        do {
+            digits[n++] = (byte) ('0' + units % 10);
+            units /= 10;
+        } while (units > 0);
+        while (n > 0) {
+            out.put(digits[--n]);
+        }
+        int fraction = (int) (cents % 100);
+        out.put((byte) '.');
+        out.put((byte) ('0' + fraction / 10));
+        out.put((byte) ('0' + fraction % 10));
+    }
+}
+
+class StatementJob {
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path workDir; // parts + manifest live here until the job is done
+    private final Path output;
+    private final LocalDate date;
+    private final int annualBasisPoints;
+    private final int chunkSize;
+    private final AtomicBoolean stopRequested = new AtomicBoolean();
+    private volatile int stopAfterChunks = Integer.MAX_VALUE;
+
+    // counters of the last run
+    final AtomicInteger chunksWritten = new AtomicInteger();
+    final AtomicInteger chunksSkipped = new AtomicInteger();
+
+    // one buffer + encoder per worker thread, reused for every chunk it processes
+    private final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private final ThreadLocal<StatementEncoder> encoders = ThreadLocal.withInitial(StatementEncoder::new);
+
+    StatementJob(Path output, LocalDate date, int annualBasisPoints, int chunkSize) {
+        this.output = output;
+        this.workDir = output.resolveSibling(output.getFileName() + ".parts");
+        this.date = date;
+        this.annualBasisPoints = annualBasisPoints;
+        this.chunkSize = chunkSize;
+    }
+
+    /*
+     * Ask a running job to stop. Chunks already started finish, nothing new starts.
+     * Only affects the current run: run() clears the request when it starts,
+     * so a stop() that arrives before run() is lost.
+     */
+    public void stop() {
+        stopRequested.set(true);
+    }
+
+    // Stop by itself once this many chunks were written in one run, e.g. to fit a maintenance window.
+    public void stopAfter(int chunks) {
+        if (chunks <= 0) {
+            throw new IllegalArgumentException("chunks must be positive: " + chunks);
+        }
+        stopAfterChunks = chunks;
+    }
+
+    /*
+     * Runs (or resumes) the job. Returns true when the statements file is complete,
+     * false when it was stopped; call run again with the same accounts to continue.
+     */
+    public boolean run(List<BankAccount> accounts, ForkJoinPool pool) throws IOException {
+        stopRequested.set(false);
+        chunksWritten.set(0);
+        chunksSkipped.set(0);
+        BankAccount[] sorted = accounts.toArray(new BankAccount[0]);
+        // chunk N must mean the same accounts on every run, whatever order the list came in
+        Arrays.parallelSort(sorted, Comparator.comparing(BankAccount::getAccountNumber));
+        Files.createDirectories(workDir);
+        checkManifest(sorted.length);
+
+        int chunks = (sorted.length + chunkSize - 1) / chunkSize;
+        try {
+            pool.invoke(new ChunkRange(sorted, 0, chunks));
+        } catch (UncheckedStatementIOException e) {
+            throw e.getCause();
+        }
+        if (stopRequested.get()) {
+            return false;
+        }
+        assemble(chunks);
+        return true;
+    }
+
+    // fork-join: split the range of chunk ids in halves, one leaf task = one chunk
+    private final class ChunkRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BankAccount[] accounts;
+        private final int from;
+        private final int to;
+
+        ChunkRange(BankAccount[] accounts, int from, int to) {
+            this.accounts = accounts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new ChunkRange(accounts, from, mid), new ChunkRange(accounts, mid, to));
+                return;
+            }
+            if (from == to || stopRequested.get()) {
+                return;
+            }
+            try {
+                writeChunk(accounts, from);
+            } catch (IOException e) {
+                throw new UncheckedStatementIOException(e);
+            }
+        }
+    }
+
+    private void writeChunk(BankAccount[] accounts, int chunk) throws IOException {
+        Path done = part(chunk);
+        if (Files.exists(done)) {
+            chunksSkipped.incrementAndGet(); // checkpoint from an earlier run
+            return;
+        }
+        Path tmp = workDir.resolve(done.getFileName() + ".tmp");
+        ByteBuffer buffer = buffers.get();
+        StatementEncoder encoder = encoders.get();
+        buffer.clear();
+        int end = Math.min(accounts.length, (chunk + 1) * chunkSize);
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = chunk * chunkSize; i < end; i++) {
+                BankAccount account = accounts[i];
+                if (buffer.remaining() < StatementEncoder.maxLength(account)) {
+                    flush(buffer, channel);
+                }
+                long opening = Interest.toCents(account.getBalance());
+                encoder.encode(buffer, account, opening, Interest.daily(opening, annualBasisPoints));
+            }
+            flush(buffer, channel);
+            channel.force(false); // data on disk BEFORE the rename makes it count as done
+        }
+        Files.move(tmp, done, StandardCopyOption.ATOMIC_MOVE);
+        if (chunksWritten.incrementAndGet() >= stopAfterChunks) {
+            stop(); // chunks other workers already started still finish
+        }
+    }
+
+    private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    // parts -> one file, kernel to kernel copies (transferTo), then atomic rename
+    private void assemble(int chunks) throws IOException {
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                try (FileChannel in = FileChannel.open(part(chunk), StandardOpenOption.READ)) {
+                    long size = in.size();
+                    long position = 0;
+                    while (position < size) {
+                        position += in.transferTo(position, size - position, out);
+                    }
+                }
+            }
+            out.force(false);
+        }
+        Files.move(tmp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            Files.delete(part(chunk));
+        }
+        Files.delete(workDir.resolve("job.properties"));
+        Files.delete(workDir);
+    }
+
+    private Path part(int chunk) {
+        return workDir.resolve(String.format("part-%06d.csv", chunk));
+    }
+
+    /*
+     * The parts are only valid for the same accounts, date, rate and chunk size.
+     * Write those down on the first run and refuse to resume with different ones.
+     */
+    private void checkManifest(int accountCount) throws IOException {
+        Properties wanted = new Properties();
+        wanted.setProperty("date", date.toString());
+        wanted.setProperty("annualBasisPoints", Integer.toString(annualBasisPoints));
+        wanted.setProperty("chunkSize", Integer.toString(chunkSize));
+        wanted.setProperty("accounts", Integer.toString(accountCount));
+        Path manifest = workDir.resolve("job.properties");
+        if (Files.exists(manifest)) {
+            Properties found = new Properties();
+            try (var in = Files.newInputStream(manifest)) {
+                found.load(in);
+            }
+            if (!found.equals(wanted)) {
+                throw new IllegalStateException("Work directory " + workDir + " belongs to another run: " + found);
+            }
+            return;
+        }
+        // same tmp + rename as the parts: a crash never leaves a half written manifest behind
+        Path tmp = workDir.resolve("job.properties.tmp");
+        try (var out = Files.newOutputStream(tmp)) {
+            wanted.store(out, "end of day statement job");
+        }
+        Files.move(tmp, manifest, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // IOException can't cross RecursiveAction.compute(), so it travels wrapped
+    static final class UncheckedStatementIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedStatementIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
+
+class StatementJobDemo {
+    public static void main(String[] args) throws Exception {
+        int n = 2_000_000;
+        Random random = new Random(11);
+        List<BankAccount> accounts = new ArrayList<>(n);
+        // deposit() prints every call, so silence System.out while we open the accounts
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        for (int i = 0; i < n; i++) {
+            BankAccount account = new BankAccount(i % 1000 == 0 ? "Doe, Jane" : "Holder " + i, String.format("%010d", i));
+            account.deposit(random.nextInt(100_000_000) / 100.0);
+            accounts.add(account);
+        }
+        System.setOut(console);
+
+        Path dir = Files.createTempDirectory("statements");
+        LocalDate today = LocalDate.of(2024, 1, 31);
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+
+        // the slow way: one thread, doubles, string concatenation
+        long start = System.nanoTime();
+        try (BufferedWriter writer = Files.newBufferedWriter(dir.resolve("naive.csv"))) {
+            for (BankAccount account : accounts) {
+                double interest = account.getBalance() * 0.035 / 365;
+                writer.write(account.getAccountNumber() + "," + account.getAccountHolder() + "," + account.getBalance()
+                        + "," + interest + "," + (account.getBalance() + interest) + "\n");
+            }
+        }
+        System.out.printf("Naive:    %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        // interrupted run: stops itself after 10 of the 40 chunks
+        // (with more cores a few more finish, the ones already in progress)
+        Path output = dir.resolve("statements-" + today + ".csv");
+        StatementJob first = new StatementJob(output, today, 350, 50_000);
+        first.stopAfter(10);
+        boolean finished = first.run(accounts, pool);
+        System.out.printf("First run finished: %b, chunks written: %d%n", finished, first.chunksWritten.get());
+
+        // resume: finished chunks are skipped
+        start = System.nanoTime();
+        StatementJob resumed = new StatementJob(output, today, 350, 50_000);
+        finished = resumed.run(accounts, pool);
+        System.out.printf("Resumed run finished: %b, written: %d, skipped: %d, %,d ms%n", finished,
+                resumed.chunksWritten.get(), resumed.chunksSkipped.get(), (System.nanoTime() - start) / 1_000_000);
+
+        // full run from scratch, for the timing
+        Path fresh = dir.resolve("fresh.csv");
+        start = System.nanoTime();
+        new StatementJob(fresh, today, 350, 50_000).run(accounts, pool);
+        System.out.printf("Parallel: %,d ms on %d threads%n", (System.nanoTime() - start) / 1_000_000, pool.getParallelism());
+
+        System.out.println("Resumed output == fresh output: " + (Files.mismatch(output, fresh) == -1));
+        try (var lines = Files.lines(output)) {
+            lines.limit(2).forEach(line -> System.out.println("  " + line));
+        }
+        System.out.println("1000.00 at 3.50% for one day: " + Interest.daily(100_000, 350) + " cents"); // 10
+    }
+}
+
+/*
+ * Notes:
+ * - Chunk size is the checkpoint granularity: a crash loses at most one
+ *   chunk per worker. Smaller chunks = less redone work, more files.
+ * - force() before rename is what makes the checkpoint trustworthy. Without
+ *   it a power cut can leave a renamed but empty part file.
+ * - The job reads each balance once. If balances still change while it runs,
+ *   run it on a consistent snapshot (cart_snapshot.java shows one way).
+ */
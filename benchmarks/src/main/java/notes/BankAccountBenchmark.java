@@ -0,0 +1,61 @@
+package notes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * BankAccount deposit and withdraw. Most of the cost is the message each
+ * call prints, and how long that message is depends on the amount
+ * (Double.toString of 5.0 vs 1234.56 vs 1.0E9).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BankAccountBenchmark {
+    @Param({"5.0", "1234.56", "1.0E9"})
+    public double amount;
+
+    private BankAccount account;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        QuietStdout.install();
+        account = new BankAccount("John Doe", "1234567890");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        QuietStdout.restore();
+    }
+
+    // balance goes up and back down, so it never drifts during a run
+    @Benchmark
+    public double depositThenWithdraw() {
+        account.deposit(amount);
+        account.withdraw(amount);
+        return account.getBalance();
+    }
+
+    // the error path: more than the balance, nothing changes
+    @Benchmark
+    public double rejectedWithdraw() {
+        account.withdraw(account.getBalance() + amount);
+        return account.getBalance();
+    }
+}
@@ -0,0 +1,130 @@
+package notes;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Calculator overloads in a loop over an array, from one cache line (16)
+ * to well past L1 (65536 ints = 256 KB).
+ *
+ * The bulk* benchmarks are the BulkCalculator (simd_calculator.java) versions
+ * of the same work, so scalar and vector numbers sit next to each other.
+ * Add -jvmArgsAppend -Dcalculator.scalar=true to run them on the scalar path.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class CalculatorBenchmark {
+    @Param({"16", "1024", "65536"})
+    public int size;
+
+    private final Calculator calculator = new Calculator();
+    private final BulkCalculator bulk = new BulkCalculator();
+    private int[] ints;
+    private int[] otherInts;
+    // for the checked variants: 65536 * 99 * 99 still fits in an int, so the
+    // benchmark measures the no-overflow fast path instead of an exception
+    private int[] smallInts;
+    private int[] otherSmallInts;
+    private double[] doubles;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        ints = new int[size];
+        otherInts = new int[size];
+        smallInts = new int[size];
+        otherSmallInts = new int[size];
+        doubles = new double[size];
+        for (int i = 0; i < size; i++) {
+            ints[i] = random.nextInt(1000);
+            otherInts[i] = random.nextInt(1000);
+            doubles[i] = random.nextDouble() * 1000;
+        }
+        for (int i = 0; i < size; i++) {
+            smallInts[i] = random.nextInt(100);
+            otherSmallInts[i] = random.nextInt(100);
+        }
+    }
+
+    @Benchmark
+    public int sumInts() {
+        int sum = 0;
+        for (int value : ints) {
+            sum = calculator.add(sum, value);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double sumDoubles() {
+        double sum = 0;
+        for (double value : doubles) {
+            sum = calculator.add(sum, value);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int sumIntTriples() {
+        int sum = 0;
+        for (int i = 0; i + 1 < ints.length; i += 2) {
+            sum = calculator.add(sum, ints[i], ints[i + 1]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int dotInts() {
+        int sum = 0;
+        for (int i = 0; i < ints.length; i++) {
+            sum = calculator.add(sum, ints[i] * otherInts[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int bulkSumInts() {
+        return bulk.add(ints);
+    }
+
+    @Benchmark
+    public int bulkSumIntsExact() {
+        return bulk.addExact(ints);
+    }
+
+    @Benchmark
+    public double bulkSumDoubles() {
+        return bulk.add(doubles);
+    }
+
+    @Benchmark
+    public int bulkDotInts() {
+        return bulk.dot(ints, otherInts);
+    }
+
+    @Benchmark
+    public int bulkDotIntsExact() {
+        return bulk.dotExact(smallInts, otherSmallInts);
+    }
+
+    @Benchmark
+    public int bulkAddAndSumInts() {
+        return bulk.addAndSum(ints, otherInts);
+    }
+}
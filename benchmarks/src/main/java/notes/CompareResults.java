@@ -0,0 +1,193 @@
+package notes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Compares two JMH result files written with "-prof gc -rf csv" and flags regressions.
+ *
+ *     java -cp target/benchmarks.jar notes.CompareResults baselines/baseline.csv results.csv [threshold]
+ *
+ * threshold is a fraction, default 0.10 (10%). A row is a regression when
+ *   - throughput (thrpt) dropped by more than the threshold
+ *   - time per op (avgt, sample, ss) grew by more than the threshold
+ *   - gc.alloc.rate.norm (bytes per op) grew by more than the threshold
+ *     AND by at least MIN_ALLOC_BYTES, so 0.001 -> 0.002 B/op is not a regression
+ * and, when both files have error bars (Score Error, 99.9%), the difference is
+ * bigger than the two error bars together. A noisy run is not a regression.
+ * Rows are matched on benchmark name, mode and parameter values. Exit code 1
+ * when anything regressed, so a CI step can fail on it.
+ */
+public final class CompareResults {
+    static final String ALLOC_NORM = "gc.alloc.rate.norm";
+    static final double MIN_ALLOC_BYTES = 8;
+
+    private CompareResults() {
+    }
+
+    // One row of a result file. metric is "" for the primary score.
+    static final class Row {
+        final String benchmark;
+        final String metric;
+        final String mode;
+        final String params;
+        final double score;
+        final double error; // NaN with a single measurement iteration
+        final String unit;
+
+        Row(String benchmark, String metric, String mode, String params, double score, double error, String unit) {
+            this.benchmark = benchmark;
+            this.metric = metric;
+            this.mode = mode;
+            this.params = params;
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        String key() {
+            return benchmark + (metric.isEmpty() ? "" : ":" + metric) + " [" + mode + "] " + params;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("usage: CompareResults <baseline.csv> <current.csv> [threshold, default 0.10]");
+            System.exit(2);
+        }
+        double threshold = args.length == 3 ? Double.parseDouble(args[2]) : 0.10;
+        Map<String, Row> baseline = read(Path.of(args[0]));
+        Map<String, Row> current = read(Path.of(args[1]));
+
+        int regressions = 0;
+        int compared = 0;
+        for (Row now : current.values()) {
+            Row before = baseline.get(now.key());
+            if (before == null) {
+                if (isCompared(now)) {
+                    System.out.printf("NEW         %s = %.3f %s%n", now.key(), now.score, now.unit);
+                }
+                continue;
+            }
+            if (!isCompared(now)) {
+                continue;
+            }
+            compared++;
+            double change = before.score == 0 ? 0 : (now.score - before.score) / before.score;
+            boolean regressed = isRegression(before, now, threshold);
+            if (regressed) {
+                regressions++;
+            }
+            System.out.printf("%-11s %s: %.3f -> %.3f %s (%+.1f%%)%n",
+                    regressed ? "REGRESSION" : "ok", now.key(), before.score, now.score, now.unit, change * 100);
+        }
+        for (Row before : baseline.values()) {
+            if (isCompared(before) && !current.containsKey(before.key())) {
+                System.out.printf("MISSING     %s%n", before.key());
+            }
+        }
+        System.out.printf("%d compared, %d regression(s) beyond %.0f%%%n", compared, regressions, threshold * 100);
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    static boolean isCompared(Row row) {
+        return row.metric.isEmpty() || row.metric.equals(ALLOC_NORM);
+    }
+
+    static boolean isRegression(Row before, Row now, double threshold) {
+        if (Math.abs(now.score - before.score) <= before.error + now.error) {
+            return false; // inside the noise (false for NaN errors, so those are compared on threshold only)
+        }
+        if (now.metric.equals(ALLOC_NORM)) {
+            return now.score > before.score * (1 + threshold) && now.score - before.score >= MIN_ALLOC_BYTES;
+        }
+        if (now.mode.equals("thrpt")) {
+            return now.score < before.score * (1 - threshold);
+        }
+        return now.score > before.score * (1 + threshold); // avgt, sample, ss: lower is better
+    }
+
+    /*
+     * JMH csv: "Benchmark","Mode","Threads","Samples","Score","Score Error (99.9%)","Unit","Param: a",...
+     * Secondary metrics (from -prof gc) are extra rows named "benchmark:metric".
+     */
+    static Map<String, Row> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IOException(file + " is empty");
+        }
+        List<String> header = split(lines.get(0));
+        int benchmarkCol = column(header, "Benchmark", file);
+        int modeCol = column(header, "Mode", file);
+        int scoreCol = column(header, "Score", file);
+        int errorCol = column(header, "Score Error (99.9%)", file);
+        int unitCol = column(header, "Unit", file);
+
+        Map<String, Row> rows = new LinkedHashMap<>();
+        for (int i = 1; i < lines.size(); i++) {
+            if (lines.get(i).isBlank()) {
+                continue;
+            }
+            List<String> cells = split(lines.get(i));
+            Map<String, String> params = new TreeMap<>(); // sorted, so column order doesn't matter
+            for (int c = 0; c < header.size() && c < cells.size(); c++) {
+                if (header.get(c).startsWith("Param: ") && !cells.get(c).isEmpty()) {
+                    params.put(header.get(c).substring("Param: ".length()), cells.get(c));
+                }
+            }
+            String name = cells.get(benchmarkCol);
+            int colon = name.indexOf(':');
+            Row row = new Row(colon < 0 ? name : name.substring(0, colon),
+                    colon < 0 ? "" : name.substring(colon + 1),
+                    cells.get(modeCol), params.toString(),
+                    Double.parseDouble(cells.get(scoreCol)), Double.parseDouble(cells.get(errorCol)),
+                    cells.get(unitCol));
+            rows.put(row.key(), row);
+        }
+        return rows;
+    }
+
+    private static int column(List<String> header, String name, Path file) throws IOException {
+        int index = header.indexOf(name);
+        if (index < 0) {
+            throw new IOException(file + ": no \"" + name + "\" column, was it written with -rf csv?");
+        }
+        return index;
+    }
+
+    // Splits one csv line, handling "quoted, cells" and "" escapes.
+    static List<String> split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (ch == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(ch);
+                }
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(ch);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+}
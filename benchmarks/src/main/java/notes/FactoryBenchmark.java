@@ -0,0 +1,41 @@
+package notes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * ComputerFactory.getComputer: a chain of equalsIgnoreCase checks, then one allocation.
+ * "server" (lower case) takes the slow, case-folding compare; "Laptop" falls
+ * through every branch and returns null.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FactoryBenchmark {
+    @Param({"PC", "Server", "server", "Laptop"})
+    public String type;
+
+    @Benchmark
+    public Computer getComputer() {
+        return ComputerFactory.getComputer(type, "16GB", "1TB", "2.9GHz");
+    }
+
+    @Benchmark
+    public String getComputerAndDescribe() {
+        Computer computer = ComputerFactory.getComputer(type, "16GB", "1TB", "2.9GHz");
+        return computer == null ? null : computer.toString();
+    }
+}
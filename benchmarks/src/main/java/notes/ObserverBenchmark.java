@@ -0,0 +1,62 @@
+package notes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/*
+ * ConcreteSubject fan-out. Observers hand the message to a Blackhole, so
+ * only the subject's own loop and the interface calls are measured.
+ * subscribeUnsubscribe shows the cost of removeObserver on an ArrayList,
+ * which is linear in the number of observers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ObserverBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int observers;
+
+    private ConcreteSubject subject;
+    private Observer extra;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        subject = new ConcreteSubject();
+        for (int i = 0; i < observers; i++) {
+            subject.addObserver(blackhole::consume);
+        }
+        extra = blackhole::consume;
+    }
+
+    @Benchmark
+    public void notifyObservers() {
+        subject.notifyObservers("price changed");
+    }
+
+    @Benchmark
+    public void setStateAndNotify() {
+        subject.setState("state");
+        subject.notifyObservers("state");
+    }
+
+    @Benchmark
+    public void subscribeUnsubscribe() {
+        subject.addObserver(extra);
+        subject.removeObserver(extra);
+    }
+}
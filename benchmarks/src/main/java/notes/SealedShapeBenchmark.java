@@ -0,0 +1,60 @@
+package notes;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * The three SealedShapeAreas loops from devirtualized_shapes.java over the
+ * same shuffled list: interface call, type switch, and partitioned by type.
+ * 2 types is still bimorphic, 3, 5 and 8 are megamorphic for the virtual loop.
+ * The partition is built in setup, like a list that is summed many times.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SealedShapeBenchmark {
+    @Param({"2", "3", "5", "8"})
+    public int types;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private List<SealedShape> shapes;
+    private SealedShapeAreas.Partitioned partitioned;
+
+    @Setup
+    public void setUp() {
+        shapes = DevirtualizedShapesDemo.randomShapes(types, size);
+        partitioned = new SealedShapeAreas.Partitioned(shapes);
+    }
+
+    @Benchmark
+    public double virtualCall() {
+        return SealedShapeAreas.totalAreaVirtual(shapes);
+    }
+
+    @Benchmark
+    public double typeSwitch() {
+        return SealedShapeAreas.totalAreaSwitch(shapes);
+    }
+
+    @Benchmark
+    public double partitioned() {
+        return SealedShapeAreas.totalAreaPartitioned(partitioned);
+    }
+}
@@ -0,0 +1,64 @@
+package notes;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Shape.calculateArea over a shuffled array. The call site sees 1, 2 or 3
+ * receiver types: monomorphic, bimorphic (both inlined) and megamorphic
+ * (a real virtual call), see devirtualized_shapes.java.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShapeBenchmark {
+    @Param({"1", "2", "3"})
+    public int types;
+
+    @Param({"1024", "65536"})
+    public int size;
+
+    private Shape[] shapes;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        shapes = new Shape[size];
+        for (int i = 0; i < size; i++) {
+            switch (random.nextInt(types)) {
+                case 0:
+                    shapes[i] = new Circle();
+                    break;
+                case 1:
+                    shapes[i] = new Rectangle();
+                    break;
+                default:
+                    shapes[i] = new Shape();
+            }
+        }
+    }
+
+    @Benchmark
+    public long totalArea() {
+        long total = 0;
+        for (Shape shape : shapes) {
+            total += shape.calculateArea();
+        }
+        return total;
+    }
+}
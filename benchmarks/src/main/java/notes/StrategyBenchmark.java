@@ -0,0 +1,77 @@
+package notes;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * ShoppingCart totals and checkout through the real payment strategies.
+ * Cart sizes go from a single item to a bulk order.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StrategyBenchmark {
+    @Param({"1", "10", "100", "1000"})
+    public int items;
+
+    @Param({"card", "paypal"})
+    public String strategy;
+
+    private ShoppingCart cart;
+    private PaymentStrategy payment;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        QuietStdout.install();
+        cart = new ShoppingCart();
+        for (int i = 0; i < items; i++) {
+            cart.addItem(new Item("Item " + i, 1 + (i * 37) % 500));
+        }
+        payment = "card".equals(strategy)
+                ? new CreditCardPayment("John Doe", "1234567890123456", "786", "12/15")
+                : new PaypalPayment("john@example.com", "password");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        QuietStdout.restore();
+    }
+
+    @Benchmark
+    public int calculateTotal() {
+        return cart.calculateTotal();
+    }
+
+    @Benchmark
+    public ShoppingCart checkout() {
+        cart.pay(payment);
+        return cart;
+    }
+
+    // build a fresh cart and pay for it: the whole request, allocations included
+    @Benchmark
+    public ShoppingCart fillAndCheckout() {
+        ShoppingCart fresh = new ShoppingCart();
+        for (Item item : cart.items) {
+            fresh.addItem(item);
+        }
+        fresh.pay(payment);
+        return fresh;
+    }
+}
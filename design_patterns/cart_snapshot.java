@@ -0,0 +1,349 @@
+/*
+ * Compact binary snapshots of ShoppingCarts with lazy, memory-mapped restore
+ *
+ * After a restart we must bring back millions of in-flight ShoppingCarts
+ * (strategy.java). Java serialization writes class descriptors, field names
+ * and object headers for every object, and it has to rebuild EVERY cart
+ * before the app can serve anything.
+ *
+ * Format (all numbers little endian):
+ *
+ *   +---------------------------------------------------------------+
+ *   | header  magic "CRT1" | cartCount | nameCount | namesAt | offsetsAt |
+ *   +---------------------------------------------------------------+
+ *   | cart records (written first, streamed)                        |
+ *   |   varint itemCount, then per item: varint nameId, varint price |
+ *   +---------------------------------------------------------------+
+ *   | name dictionary: per name varint length + UTF-8 bytes          |
+ *   +---------------------------------------------------------------+
+ *   | offset table: one long per cart = where its record starts      |
+ *   +---------------------------------------------------------------+
+ *
+ * Why it is small:
+ * - varint: 7 bits per byte, the high bit says "more bytes follow".
+ *   A price of 100 takes 1 byte instead of 4. Negative numbers are
+ *   zig-zag encoded first (0,-1,1,-2 -> 0,1,2,3) so they stay small too.
+ * - dictionary: "Item 1" appears in 300,000 carts but is stored once,
+ *   carts store its id (usually 1-2 bytes).
+ *
+ * Why restore is fast:
+ * - The file is memory mapped. The OS loads pages only when they are touched.
+ * - open() reads the header and notes where each dictionary name starts.
+ *   No cart is decoded.
+ * - get(i) jumps through the offset table to cart i and decodes just that cart.
+ *   So time-to-ready depends on the carts actually used, not on the file size.
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+class CartFormat {
+    static final int MAGIC = 0x3154_5243; // "CRT1" read as little endian
+    static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
+
+// ============ Writing ============
+
+class CartSnapshotWriter {
+    private static final int CHUNK = 1 << 20; // write 1 MB at a time
+    private static final int MAX_RECORD = 16; // bytes per item, worst case (two 5 byte varints + slack)
+
+    // Written to a temp file first and renamed at the end, so a crash while
+    // writing never replaces the previous good snapshot with half a file.
+    public static void write(Path file, List<ShoppingCart> carts) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        writeTo(tmp, carts);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeTo(Path file, List<ShoppingCart> carts) throws IOException {
+        Map<String, Integer> nameIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        long[] offsets = new long[carts.size()];
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK).order(ByteOrder.LITTLE_ENDIAN);
+            long position = CartFormat.HEADER_SIZE;
+            channel.position(position);
+
+            // 1. records, streamed in large sequential chunks
+            for (int c = 0; c < carts.size(); c++) {
+                List<Item> items = carts.get(c).items;
+                int worstCase = 5 + items.size() * MAX_RECORD;
+                if (buffer.remaining() < worstCase) {
+                    position += flush(channel, buffer);
+                    if (buffer.capacity() < worstCase) {
+                        buffer = ByteBuffer.allocateDirect(worstCase).order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                }
+                offsets[c] = position + buffer.position();
+                CartFormat.putVarint(buffer, items.size());
+                for (Item item : items) {
+                    Integer id = nameIds.get(item.getName());
+                    if (id == null) {
+                        id = names.size();
+                        nameIds.put(item.getName(), id);
+                        names.add(item.getName());
+                    }
+                    CartFormat.putVarint(buffer, id);
+                    CartFormat.putVarint(buffer, CartFormat.zigZag(item.getPrice()));
+                }
+            }
+
+            // 2. dictionary
+            long namesAt = position + buffer.position();
+            for (String name : names) {
+                byte[] utf8 = name.getBytes(StandardCharsets.UTF_8);
+                if (buffer.remaining() < 5 + utf8.length) {
+                    position += flush(channel, buffer);
+                    if (buffer.capacity() < 5 + utf8.length) {
+                        buffer = ByteBuffer.allocateDirect(5 + utf8.length).order(ByteOrder.LITTLE_ENDIAN);
+                    }
+                }
+                CartFormat.putVarint(buffer, utf8.length);
+                buffer.put(utf8);
+            }
+
+            // 3. offset table
+            long offsetsAt = position + buffer.position();
+            for (long offset : offsets) {
+                if (buffer.remaining() < Long.BYTES) {
+                    position += flush(channel, buffer);
+                }
+                buffer.putLong(offset);
+            }
+            flush(channel, buffer);
+
+            // 4. header last, now that we know where everything is
+            ByteBuffer header = ByteBuffer.allocate(CartFormat.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(CartFormat.MAGIC).putInt(carts.size()).putInt(names.size())
+                    .putLong(namesAt).putLong(offsetsAt).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    private static int flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+        return written;
+    }
+}
+
+// ============ Restoring ============
+
+class CartSnapshot {
+    private final MappedByteBuffer map;
+    private final int cartCount;
+    private final int offsetsAt;
+    private final int[] namePositions; // where each dictionary entry starts
+    private final AtomicReferenceArray<String> names;
+    private final AtomicReferenceArray<ShoppingCart> carts;
+
+    private CartSnapshot(MappedByteBuffer map) {
+        this.map = map;
+        if (map.getInt(0) != CartFormat.MAGIC) {
+            throw new IllegalArgumentException("Not a cart snapshot");
+        }
+        this.cartCount = map.getInt(4);
+        int nameCount = map.getInt(8);
+        int namesAt = (int) map.getLong(12);
+        this.offsetsAt = (int) map.getLong(20);
+
+        // Only the small dictionary is scanned up front, and only for positions.
+        this.namePositions = new int[nameCount];
+        int position = namesAt;
+        for (int i = 0; i < nameCount; i++) {
+            namePositions[i] = position;
+            int[] cursor = { position };
+            int length = readVarint(cursor);
+            position = cursor[0] + length;
+        }
+        this.names = new AtomicReferenceArray<>(nameCount);
+        this.carts = new AtomicReferenceArray<>(cartCount);
+    }
+
+    /*
+     * A single MappedByteBuffer covers at most 2 GB. That is ~100 million
+     * small carts. Bigger snapshots should be split into several files
+     * (or mapped in segments), which also lets them be restored in parallel.
+     */
+    public static CartSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot larger than 2 GB, split it into several files");
+            }
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            return new CartSnapshot(map); // the mapping stays valid after the channel is closed
+        }
+    }
+
+    public int size() {
+        return cartCount;
+    }
+
+    // Decoded on first access, then cached. Every caller gets the same instance.
+    public ShoppingCart get(int index) {
+        ShoppingCart cart = carts.get(index);
+        if (cart == null) {
+            ShoppingCart decoded = decode(index);
+            cart = carts.compareAndExchange(index, null, decoded);
+            if (cart == null) {
+                cart = decoded;
+            }
+        }
+        return cart;
+    }
+
+    public int decodedCount() {
+        int n = 0;
+        for (int i = 0; i < cartCount; i++) {
+            if (carts.get(i) != null) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    private ShoppingCart decode(int index) {
+        if (index < 0 || index >= cartCount) {
+            throw new IndexOutOfBoundsException("cart " + index + " of " + cartCount);
+        }
+        int[] cursor = { (int) map.getLong(offsetsAt + index * Long.BYTES) };
+        int items = readVarint(cursor);
+        ShoppingCart cart = new ShoppingCart();
+        for (int i = 0; i < items; i++) {
+            String name = name(readVarint(cursor));
+            int price = CartFormat.unZigZag(readVarint(cursor));
+            cart.addItem(new Item(name, price));
+        }
+        return cart;
+    }
+
+    private String name(int id) {
+        String name = names.get(id);
+        if (name == null) {
+            int[] cursor = { namePositions[id] };
+            int length = readVarint(cursor);
+            byte[] utf8 = new byte[length];
+            map.get(cursor[0], utf8);
+            name = new String(utf8, StandardCharsets.UTF_8);
+            names.set(id, name); // racing threads decode the same string, harmless
+        }
+        return name;
+    }
+
+    // absolute reads only, so the shared buffer's position is never touched (thread safe)
+    private int readVarint(int[] cursor) {
+        int position = cursor[0];
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = map.get(position++);
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                cursor[0] = position;
+                return result;
+            }
+        }
+        throw new IllegalStateException("Malformed varint at " + cursor[0]);
+    }
+}
+
+class CartSnapshotDemo {
+    public static void main(String[] args) throws IOException {
+        int cartCount = 1_000_000;
+        Random random = new Random(11);
+        List<ShoppingCart> carts = new ArrayList<>(cartCount);
+        int itemCount = 0;
+        for (int c = 0; c < cartCount; c++) {
+            ShoppingCart cart = new ShoppingCart();
+            int items = 1 + random.nextInt(5);
+            for (int i = 0; i < items; i++) {
+                cart.addItem(new Item("Item " + random.nextInt(1_000), 1 + random.nextInt(500)));
+            }
+            itemCount += items;
+            carts.add(cart);
+        }
+
+        Path file = Files.createTempFile("carts", ".snap");
+        long start = System.nanoTime();
+        CartSnapshotWriter.write(file, carts);
+        System.out.printf("Wrote %,d carts / %,d items in %,d ms: %,d bytes (%.1f bytes per item)%n",
+                cartCount, itemCount, (System.nanoTime() - start) / 1_000_000,
+                Files.size(file), (double) Files.size(file) / itemCount);
+
+        // time-to-ready: open + touch 1% of the carts
+        start = System.nanoTime();
+        CartSnapshot snapshot = CartSnapshot.open(file);
+        long opened = System.nanoTime() - start;
+        long checksum = 0;
+        for (int i = 0; i < cartCount; i += 100) {
+            checksum += snapshot.get(i).calculateTotal();
+        }
+        long touched = System.nanoTime() - start;
+        System.out.printf("Open: %.2f ms, open + 1%% of carts: %,d ms (%,d decoded)%n",
+                opened / 1e6, touched / 1_000_000, snapshot.decodedCount());
+
+        // versus decoding everything up front
+        start = System.nanoTime();
+        CartSnapshot eager = CartSnapshot.open(file);
+        for (int i = 0; i < cartCount; i++) {
+            eager.get(i);
+        }
+        System.out.printf("Eager restore of all carts: %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        boolean same = true;
+        for (int i = 0; i < cartCount; i += 997) {
+            same &= snapshot.get(i).calculateTotal() == carts.get(i).calculateTotal();
+        }
+        System.out.println("Restored totals match: " + same + " (checksum " + checksum + ")");
+        Files.delete(file);
+    }
+}
+
+/*
+ * Things to keep in mind:
+ * - A version number in the header (CRT1) lets a newer reader refuse or
+ *   convert an old file instead of silently misreading it.
+ * - The offset table is what makes random access possible. Without it we
+ *   would have to decode carts 0..i-1 to find where cart i starts.
+ * - Deleting or replacing a mapped file on Windows fails while it is mapped.
+ */
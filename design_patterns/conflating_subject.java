@@ -0,0 +1,438 @@
+/*
+ * Conflating subject: last-value cache + "only the newest state" delivery
+ *
+ * Two problems with ConcreteSubject (observer.java) when the subject is some
+ * state that keeps changing (a price, a game score, a dashboard):
+ *
+ * 1 - setState() stores the state but nobody ever reads it. An observer that
+ *     subscribes late sees nothing until the next message.
+ *     -> keep the last value and hand it to every new observer right away
+ *        (a "last-value cache", like a retained message in MQTT).
+ *
+ * 2 - notifyObservers() calls every observer with every message. A slow
+ *     observer (a phone on a bad network) either slows down the publisher
+ *     or, with a queue, falls further and further behind.
+ *     -> conflation: every observer has ONE slot instead of a queue.
+ *        A new state overwrites the slot if the old one wasn't consumed yet.
+ *        A slow observer skips intermediate values and always jumps
+ *        straight to the newest one. Memory per observer stays constant.
+ *
+ *    publisher:  s1  s2  s3  s4  s5  s6
+ *    fast obs:   s1  s2  s3  s4  s5  s6
+ *    slow obs:   s1 ......... s4 ..... s6      (s2, s3, s5 conflated away)
+ *
+ * Delivery runs on an Executor, one drain task per observer at a time,
+ * so the publisher never waits for an observer. An observer that throws
+ * loses that one state (counted in failed), not its subscription.
+ *
+ * Delta encoding (optional, per observer):
+ * consecutive states usually differ in a few characters
+ *     {"bid":101.25,"ask":101.30,"volume":1200}
+ *     {"bid":101.25,"ask":101.35,"volume":1250}
+ * so instead of the whole string we send "keep the first 22 chars, keep the
+ * last 2 chars, put '35,"volume":125' in between", see StateDelta below.
+ * The delta is computed against the last state THAT observer received, so
+ * conflation and deltas work together.
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+// Observers that want deltas implement this. The first update is always a full state.
+interface DeltaObserver extends Observer {
+    void updateDelta(byte[] delta);
+}
+
+/*
+ * Delta between two strings: common prefix, common suffix, and what changed in between.
+ *
+ *   varint prefix length | varint suffix length | UTF-8 of the middle
+ *
+ * Lengths are in chars. O(n) to compute, and it never splits a surrogate
+ * pair, so the middle is always valid UTF-8.
+ */
+class StateDelta {
+    static byte[] encode(String previous, String next) {
+        int max = Math.min(previous.length(), next.length());
+        int prefix = 0;
+        while (prefix < max && previous.charAt(prefix) == next.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix > 0 && prefix < next.length() && Character.isHighSurrogate(next.charAt(prefix - 1))) {
+            prefix--;
+        }
+        int suffix = 0;
+        while (suffix < max - prefix
+                && previous.charAt(previous.length() - 1 - suffix) == next.charAt(next.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (suffix > 0 && suffix < next.length() - prefix
+                && Character.isLowSurrogate(next.charAt(next.length() - suffix))) {
+            suffix--;
+        }
+        byte[] middle = next.substring(prefix, next.length() - suffix).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(10 + middle.length);
+        putVarint(buffer, prefix);
+        putVarint(buffer, suffix);
+        buffer.put(middle);
+        byte[] delta = new byte[buffer.position()];
+        buffer.flip().get(delta);
+        return delta;
+    }
+
+    static String apply(String previous, byte[] delta) {
+        ByteBuffer buffer = ByteBuffer.wrap(delta);
+        int prefix = getVarint(buffer);
+        int suffix = getVarint(buffer);
+        String middle = new String(delta, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+        return previous.substring(0, prefix) + middle + previous.substring(previous.length() - suffix);
+    }
+
+    // same varint as CartFormat in cart_snapshot.java: 7 bits per byte, high bit = more bytes follow
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int getVarint(ByteBuffer buffer) {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in delta");
+    }
+}
+
+/*
+ * Receiving end of a delta stream: rebuilds the full state and passes it on.
+ * Wrap any normal Observer in it to get deltas on the wire.
+ */
+class DeltaDecoder implements DeltaObserver {
+    private final Observer target;
+    private String current = "";
+
+    DeltaDecoder(Observer target) {
+        this.target = target;
+    }
+
+    @Override
+    public void update(String message) {
+        current = message;
+        target.update(message);
+    }
+
+    @Override
+    public void updateDelta(byte[] delta) {
+        current = StateDelta.apply(current, delta);
+        target.update(current);
+    }
+}
+
+class ConflatingSubject implements Subject, AutoCloseable {
+    // a state plus its position in the sequence, so a slot never goes back in time
+    static final class Versioned {
+        final long version;
+        final String state;
+
+        Versioned(long version, String state) {
+            this.version = version;
+            this.state = state;
+        }
+    }
+
+    private final Executor deliveries;
+    private final ExecutorService ownedExecutor; // only if we created it, so close() knows what to shut down
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicReference<Versioned> latest = new AtomicReference<>();
+    private final AtomicLong versions = new AtomicLong();
+
+    final LongAdder published = new LongAdder();
+    final LongAdder delivered = new LongAdder();
+    final LongAdder conflated = new LongAdder(); // states overwritten before an observer got them
+    final LongAdder failed = new LongAdder(); // deliveries where the observer threw
+    final LongAdder fullBytes = new LongAdder(); // what full-state updates would have cost (chars = bytes for ASCII)
+    final LongAdder sentBytes = new LongAdder(); // bytes actually sent
+
+    public ConflatingSubject() {
+        AtomicInteger counter = new AtomicInteger();
+        this.ownedExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "conflating-delivery-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.deliveries = ownedExecutor;
+    }
+
+    public ConflatingSubject(Executor deliveries) {
+        this.deliveries = deliveries;
+        this.ownedExecutor = null;
+    }
+
+    /*
+     * One per observer. pending is the single conflation slot, scheduled makes
+     * sure at most one drain task per observer is running, so an observer is
+     * never called from two threads at once and sees states in order.
+     */
+    private final class Subscription implements Runnable {
+        final Observer observer;
+        final boolean deltas;
+        final AtomicReference<Versioned> pending = new AtomicReference<>();
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean cancelled;
+        long lastVersion = -1; // only touched by the drain task
+        String lastState;
+
+        Subscription(Observer observer) {
+            this.observer = observer;
+            this.deltas = observer instanceof DeltaObserver;
+        }
+
+        void offer(Versioned next) {
+            Versioned current;
+            do {
+                current = pending.get();
+                if (current != null && current.version >= next.version) {
+                    return; // the slot already holds something newer
+                }
+            } while (!pending.compareAndSet(current, next));
+            if (current != null) {
+                conflated.increment();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                deliveries.execute(this);
+            }
+        }
+
+        /*
+         * scheduled is cleared in finally: if it stayed true after an Error
+         * escaped, offer() would never schedule this observer again.
+         */
+        @Override
+        public void run() {
+            try {
+                Versioned next;
+                while ((next = pending.getAndSet(null)) != null) {
+                    if (!cancelled && next.version > lastVersion) {
+                        deliverOrCount(next);
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                // a state may have arrived after the last getAndSet but before scheduled=false
+                if (pending.get() != null && scheduled.compareAndSet(false, true)) {
+                    deliveries.execute(this);
+                }
+            }
+        }
+
+        private void deliverOrCount(Versioned next) {
+            try {
+                deliver(next);
+            } catch (RuntimeException e) {
+                failed.increment();
+                lastVersion = next.version; // don't retry it, a newer state comes anyway
+                lastState = null; // we don't know what the observer applied, next one goes out in full
+            }
+        }
+
+        private void deliver(Versioned next) {
+            int full = next.state.length();
+            if (deltas && lastState != null) {
+                byte[] delta = StateDelta.encode(lastState, next.state);
+                if (delta.length < full) {
+                    ((DeltaObserver) observer).updateDelta(delta);
+                    sentBytes.add(delta.length);
+                } else {
+                    observer.update(next.state);
+                    sentBytes.add(full);
+                }
+            } else {
+                observer.update(next.state);
+                sentBytes.add(full);
+            }
+            fullBytes.add(full);
+            delivered.increment();
+            lastVersion = next.version;
+            lastState = next.state;
+        }
+    }
+
+    // New observers get the last value immediately, then every newer state.
+    @Override
+    public void addObserver(Observer observer) {
+        Subscription subscription = new Subscription(observer);
+        subscriptions.add(subscription);
+        Versioned current = latest.get();
+        if (current != null) {
+            subscription.offer(current);
+        }
+    }
+
+    @Override
+    public void removeObserver(Observer observer) {
+        for (Subscription subscription : subscriptions) {
+            if (subscription.observer == observer) {
+                subscription.cancelled = true;
+                subscriptions.remove(subscription);
+                return;
+            }
+        }
+    }
+
+    /*
+     * Store the new state and offer it to every observer. Never blocks on an observer.
+     * Version and latest are updated together under a CAS loop, so latest only moves forward
+     * even with many publishing threads.
+     */
+    @Override
+    public void setState(String state) {
+        Versioned next = new Versioned(versions.incrementAndGet(), state);
+        Versioned current;
+        do {
+            current = latest.get();
+            if (current != null && current.version > next.version) {
+                break; // a newer state won the race, ours is already stale
+            }
+        } while (!latest.compareAndSet(current, next));
+        published.increment();
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(next);
+        }
+    }
+
+    // For a state subject every message IS the new state.
+    @Override
+    public void notifyObservers(String message) {
+        setState(message);
+    }
+
+    public String getState() {
+        Versioned current = latest.get();
+        return current == null ? null : current.state;
+    }
+
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
+
+class ConflatingSubjectDemo {
+    // takes 2 ms per update, like a client on a slow connection
+    static class SlowObserver implements Observer {
+        final AtomicInteger received = new AtomicInteger();
+        volatile String last;
+
+        @Override
+        public void update(String message) {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            received.incrementAndGet();
+            last = message;
+        }
+    }
+
+    static class CountingObserver implements Observer {
+        final AtomicInteger received = new AtomicInteger();
+        volatile String last;
+
+        @Override
+        public void update(String message) {
+            received.incrementAndGet();
+            last = message;
+        }
+    }
+
+    static String quote(int tick) {
+        return "{\"symbol\":\"ACME\",\"bid\":" + (10_000 + tick % 50) / 100.0 + ",\"ask\":"
+                + (10_005 + tick % 50) / 100.0 + ",\"volume\":" + (1_000 + tick) + ",\"venue\":\"XNAS\"}";
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try (ConflatingSubject subject = new ConflatingSubject()) {
+            subject.setState(quote(0));
+
+            // 1 - late subscriber gets the last value right away, no waiting for the next update
+            CountDownLatch gotIt = new CountDownLatch(1);
+            subject.addObserver(message -> gotIt.countDown());
+            System.out.println("Late subscriber got last value: " + gotIt.await(1, TimeUnit.SECONDS));
+
+            // 2 - fast publisher, one slow and one fast observer, one observer on deltas
+            SlowObserver slow = new SlowObserver();
+            CountingObserver fast = new CountingObserver();
+            CountingObserver viaDeltas = new CountingObserver();
+            subject.addObserver(slow);
+            subject.addObserver(fast);
+            subject.addObserver(new DeltaDecoder(viaDeltas));
+            // throws on every 100th state, must still end up on the latest one
+            CountingObserver flaky = new CountingObserver() {
+                @Override
+                public void update(String message) {
+                    if (received.get() % 100 == 99) {
+                        received.incrementAndGet();
+                        throw new IllegalStateException("observer bug");
+                    }
+                    super.update(message);
+                }
+            };
+            subject.addObserver(flaky);
+
+            int updates = 20_000;
+            long start = System.nanoTime();
+            for (int tick = 1; tick <= updates; tick++) {
+                subject.setState(quote(tick));
+            }
+            long publishMicros = (System.nanoTime() - start) / 1000;
+            Thread.sleep(200); // let the delivery threads catch up with the last state
+
+            String last = quote(updates);
+            System.out.printf("Published %,d states in %,d us (the publisher never waited)%n", updates, publishMicros);
+            System.out.printf("Slow observer: %,d updates, ends on latest: %b%n", slow.received.get(), last.equals(slow.last));
+            System.out.printf("Fast observer: %,d updates, ends on latest: %b%n", fast.received.get(), last.equals(fast.last));
+            System.out.printf("Delta observer: ends on latest: %b%n", last.equals(viaDeltas.last));
+            System.out.printf("Flaky observer: %,d failed deliveries, ends on latest: %b%n",
+                    subject.failed.sum(), last.equals(flaky.last));
+            System.out.printf("Conflated away: %,d states%n", subject.conflated.sum());
+            System.out.printf("Bytes: %,d sent instead of %,d (%.0f%%)%n", subject.sentBytes.sum(), subject.fullBytes.sum(),
+                    100.0 * subject.sentBytes.sum() / subject.fullBytes.sum());
+
+            byte[] delta = StateDelta.encode(quote(1), quote(2));
+            System.out.println("One delta: " + delta.length + " bytes instead of " + quote(2).length());
+        }
+    }
+}
+
+/*
+ * When to conflate:
+ * - the observer cares about the CURRENT state (prices, positions, presence)
+ * When NOT to:
+ * - every message matters (chat messages, orders, audit events):
+ *   skipping one is data loss. Use a queue and backpressure instead.
+ *
+ * Delta encoding pays off when states are large and change a little.
+ * For tiny states the two length varints cost more than they save,
+ * so we fall back to the full state whenever the delta isn't smaller.
+ */
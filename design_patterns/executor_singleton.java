@@ -0,0 +1,356 @@
+/*
+ * Thread pool singleton: one executor for the whole process
+ *
+ * singelton.java lists thread pools as a classic singleton use case.
+ * Why only one? Every pool has its own threads. Ten components each
+ * creating "a small pool of 8" on an 8 core machine means 80 threads
+ * fighting for 8 cores. One shared, well sized executor scales predictably.
+ *
+ * Two kinds of work need two kinds of threads:
+ *
+ * 1 - CPU bound (building computers in the factory, computing cart totals)
+ *     -> exactly one thread per core, more threads only add context switches.
+ *     -> ForkJoinPool: every worker has its own deque of tasks. An idle worker
+ *        STEALS from the tail of a busy worker's deque ("work stealing"),
+ *        so load balances itself without one shared, contended queue.
+ *
+ * 2 - Blocking (payment gateway calls, observers writing to sockets)
+ *     -> the thread mostly waits, so we want MANY of them, cheaply.
+ *     -> Java 21 virtual threads: one virtual thread per task, millions are
+ *        fine, a blocked virtual thread doesn't hold an OS thread.
+ *     -> On older JDKs we fall back to a BOUNDED pool of platform threads
+ *        and admit far fewer pending tasks, an OS thread is not cheap.
+ *
+ * Per pool we track:
+ *     queue latency  time from submit() until a thread starts the task
+ *     run time       time the task itself takes
+ *     rejections     tasks refused because the pool is full or shut down
+ *     cancellations  queued tasks dropped by a forced shutdown
+ *
+ * The singleton is the Bill Pugh holder idiom from singelton.java: created
+ * lazily on first use, thread safe through class initialization, no locks.
+ */
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+enum TaskKind {
+    CPU, BLOCKING
+}
+
+// One pool plus its metrics. Histograms come from metrics_registry.java.
+class MeteredPool {
+    final String name;
+    final ExecutorService executor;
+    final int maxPending;
+
+    final AtomicInteger pending = new AtomicInteger(); // submitted, not finished yet
+    final LatencyHistogram queueLatency = new LatencyHistogram();
+    final LatencyHistogram runTime = new LatencyHistogram();
+    final LongAdder completed = new LongAdder();
+    final LongAdder failed = new LongAdder();
+    final LongAdder rejected = new LongAdder();
+    final LongAdder cancelled = new LongAdder();
+
+    // accepted but not started yet, so a forced shutdown can still settle their futures
+    private final Set<MeteredTask<?>> queued = ConcurrentHashMap.newKeySet();
+
+    MeteredPool(String name, ExecutorService executor, int maxPending) {
+        this.name = name;
+        this.executor = executor;
+        this.maxPending = maxPending;
+    }
+
+    <T> CompletableFuture<T> submit(Callable<T> task) {
+        // admission control: a full pool says no right away instead of queueing forever
+        if (pending.incrementAndGet() > maxPending) {
+            pending.decrementAndGet();
+            rejected.increment();
+            throw new RejectedExecutionException(name + " pool is full (" + maxPending + " pending)");
+        }
+        MeteredTask<T> metered = new MeteredTask<>(task);
+        queued.add(metered);
+        try {
+            executor.execute(metered);
+        } catch (RejectedExecutionException e) {
+            queued.remove(metered);
+            pending.decrementAndGet();
+            rejected.increment();
+            throw e;
+        }
+        return metered.result;
+    }
+
+    /*
+     * shutdownNow() drops queued Runnables (ForkJoinPool doesn't even return
+     * them), so nobody would ever complete their futures and callers blocked
+     * on join() would hang. Whatever did not start yet is cancelled here.
+     */
+    int cancelQueued() {
+        int count = 0;
+        for (MeteredTask<?> task : queued) {
+            if (task.claim()) {
+                queued.remove(task);
+                task.result.completeExceptionally(new CancellationException(name + " pool was shut down"));
+                pending.decrementAndGet();
+                cancelled.increment();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /*
+     * The flag decides who owns the future: the worker that starts the task,
+     * or cancelQueued(). Exactly one of them wins the compareAndSet.
+     */
+    private final class MeteredTask<T> implements Runnable {
+        final Callable<T> task;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final long submitted = System.nanoTime();
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        MeteredTask(Callable<T> task) {
+            this.task = task;
+        }
+
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        @Override
+        public void run() {
+            if (!claim()) {
+                return; // already cancelled by a forced shutdown
+            }
+            queued.remove(this);
+            long started = System.nanoTime();
+            queueLatency.record(started - submitted);
+            try {
+                result.complete(task.call());
+                completed.increment();
+            } catch (Throwable e) {
+                failed.increment();
+                result.completeExceptionally(e);
+            } finally {
+                runTime.record(System.nanoTime() - started);
+                pending.decrementAndGet();
+            }
+        }
+    }
+
+    // everything since the previous report: histograms and counters are reset together
+    String report() {
+        HistogramSnapshot queue = queueLatency.intervalSnapshot();
+        HistogramSnapshot run = runTime.intervalSnapshot();
+        return String.format("%-8s done=%-7d failed=%-4d rejected=%-5d cancelled=%-4d queue p50=%.1fus p99=%.1fus  run p50=%.1fus p99=%.1fus",
+                name, completed.sumThenReset(), failed.sumThenReset(), rejected.sumThenReset(), cancelled.sumThenReset(),
+                queue.percentile(50) / 1000.0, queue.percentile(99) / 1000.0,
+                run.percentile(50) / 1000.0, run.percentile(99) / 1000.0);
+    }
+}
+
+class TaskExecutor {
+    private final MeteredPool cpu;
+    private final MeteredPool blocking;
+    private volatile boolean shuttingDown;
+
+    private TaskExecutor() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        // asyncMode = true: FIFO order for tasks that are never joined, better for event style work
+        ForkJoinPool workStealing = new ForkJoinPool(cores, ForkJoinPool.defaultForkJoinWorkerThreadFactory,
+                null, true);
+        this.cpu = new MeteredPool("cpu", workStealing, 100_000);
+        ExecutorService blockingExecutor = newBlockingExecutor(cores);
+        // virtual threads: a million parked tasks is fine, platform threads: keep the backlog small
+        int blockingPending = blockingExecutor instanceof ThreadPoolExecutor ? 10_000 : 1_000_000;
+        this.blocking = new MeteredPool("blocking", blockingExecutor, blockingPending);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> shutdown(Duration.ofSeconds(5)), "executor-drain"));
+    }
+
+    private static class SingletonHelper {
+        private static final TaskExecutor INSTANCE = new TaskExecutor();
+    }
+
+    public static TaskExecutor getInstance() {
+        return SingletonHelper.INSTANCE;
+    }
+
+    /*
+     * Executors.newVirtualThreadPerTaskExecutor() exists from Java 21.
+     * Looking it up by reflection lets this file compile and run on 17 too.
+     *
+     * The fallback must NOT be a cached pool: it creates one OS thread per
+     * concurrent task with no upper limit, so a burst of slow remote calls
+     * turns into thousands of threads. A fixed ceiling plus a queue keeps
+     * memory bounded; the queue is as large as the admission cap, so
+     * MeteredPool rejects before the executor ever has to.
+     */
+    static ExecutorService newBlockingExecutor(int cores) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int maxThreads = Math.max(64, cores * 16);
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor platform = new ThreadPoolExecutor(maxThreads, maxThreads, 30, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(10_000), r -> {
+                        Thread thread = new Thread(r, "blocking-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            platform.allowCoreThreadTimeOut(true); // idle threads go away again
+            return platform;
+        }
+    }
+
+    public <T> CompletableFuture<T> submit(TaskKind kind, Callable<T> task) {
+        if (shuttingDown) {
+            pool(kind).rejected.increment();
+            throw new RejectedExecutionException("executor is shutting down");
+        }
+        return pool(kind).submit(task);
+    }
+
+    public CompletableFuture<Void> execute(TaskKind kind, Runnable task) {
+        return submit(kind, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    private MeteredPool pool(TaskKind kind) {
+        return kind == TaskKind.CPU ? cpu : blocking;
+    }
+
+    public int parallelism() {
+        return ((ForkJoinPool) cpu.executor).getParallelism();
+    }
+
+    public String report() {
+        return cpu.report() + System.lineSeparator() + blocking.report();
+    }
+
+    /*
+     * Graceful shutdown:
+     * 1. refuse new tasks
+     * 2. let everything already submitted finish (drain)
+     * 3. only if that takes longer than the timeout, interrupt what is left
+     *    and cancel what never started, so every future gets an outcome
+     * Returns true if every in-flight task finished in time.
+     */
+    public boolean shutdown(Duration timeout) {
+        shuttingDown = true;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        cpu.executor.shutdown();
+        blocking.executor.shutdown();
+        try {
+            boolean drained = cpu.executor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS)
+                    & blocking.executor.awaitTermination(remaining(deadline), TimeUnit.NANOSECONDS);
+            if (!drained) {
+                forceShutdown();
+            }
+            return drained;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            forceShutdown();
+            return false;
+        }
+    }
+
+    private void forceShutdown() {
+        cpu.executor.shutdownNow();
+        blocking.executor.shutdownNow();
+        cpu.cancelQueued();
+        blocking.cancelQueued();
+    }
+
+    private static long remaining(long deadline) {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
+
+class ExecutorSingletonDemo {
+    public static void main(String[] args) throws Exception {
+        TaskExecutor executor = TaskExecutor.getInstance();
+        System.out.println("CPU parallelism: " + executor.parallelism());
+
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+
+        // factory work is pure CPU
+        for (int i = 0; i < 10_000; i++) {
+            String type = i % 2 == 0 ? "PC" : "Server";
+            futures.add(executor.submit(TaskKind.CPU, () -> ComputerFactory.getComputer(type, "16GB", "1TB", "2.9GHz").toString()));
+        }
+
+        // cart totals are CPU, the payment gateway call blocks
+        for (int i = 0; i < 2_000; i++) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.addItem(new Item("Item 1", 100 + i));
+            cart.addItem(new Item("Item 2", 200));
+            futures.add(executor.submit(TaskKind.CPU, cart::calculateTotal)
+                    .thenCompose(total -> executor.submit(TaskKind.BLOCKING, () -> {
+                        Thread.sleep(5); // remote call
+                        return total;
+                    })));
+        }
+
+        // observers that block (e.g. push over the network) each get their own task
+        Subject subject = new ConcreteSubject();
+        subject.addObserver(message -> sleepQuietly(2));
+        for (int i = 0; i < 1_000; i++) {
+            String message = "event " + i;
+            futures.add(executor.execute(TaskKind.BLOCKING, () -> subject.notifyObservers(message)));
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+        System.out.printf("All %,d tasks done in %,d ms%n", futures.size(), (System.nanoTime() - start) / 1_000_000);
+        System.out.println(executor.report());
+
+        // in-flight work is drained, then new work is rejected
+        executor.execute(TaskKind.BLOCKING, () -> sleepQuietly(200));
+        System.out.println("Drained: " + executor.shutdown(Duration.ofSeconds(2)));
+        try {
+            executor.execute(TaskKind.CPU, () -> { });
+        } catch (RejectedExecutionException e) {
+            System.out.println("After shutdown: " + e.getMessage());
+        }
+    }
+
+    static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/*
+ * Notes:
+ * - Never run blocking work on the CPU pool. One sleeping task takes away
+ *   one core's worth of capacity, and queue latency for everybody goes up.
+ *   The queue latency histogram is where that shows first.
+ * - With platform threads (JDK < 21) the blocking pool stops at a fixed
+ *   number of OS threads and queues the rest. Virtual threads lift that limit.
+ * - A singleton pool is still configurable: size it from the core count,
+ *   not from a constant in the code.
+ */
@@ -0,0 +1,422 @@
+/*
+ * Item catalog with a hash index on name and a sorted index on price
+ *
+ * Item (strategy.java) has a name and a price, and today we find items by
+ * looping over a List<Item>. With millions of items every question is a
+ * full table scan, the exact problem db/indexing.sql starts with.
+ *
+ * Two indexes, like a database table with two CREATE INDEX statements:
+ *
+ * 1 - Hash index on name      -> findByName("Item 7") in O(1)
+ *
+ * 2 - Sorted index on price   -> a long[] of (price << 32 | id), sorted
+ *         "price between 100 and 200": binary search for 100, then walk
+ *                                       until 200           O(log n + k)
+ *         "10 cheapest":               the first 10 keys   O(k)
+ *         "10 most expensive":         the last 10 keys    O(k)
+ *     A primitive long[] instead of TreeMap<Integer, List<Item>>: no node
+ *     objects, 8 bytes per item, and a binary search touches few cache lines.
+ *
+ * Bulk loading: put all keys in the array and sort ONCE (Arrays.parallelSort).
+ * n inserts into a sorted structure cost n * log n with lots of pointer
+ * chasing, one sort costs n * log n over a flat array, much faster in practice.
+ *
+ * Inserts after the bulk load go into a small sorted "delta" array. When
+ * it is full it is merged into the main array in one linear pass (the
+ * same idea as an LSM tree). Queries walk main and delta together, so
+ * results come out in price order. Deletes set a tombstone bit, and the
+ * next merge drops them. Deletes also trigger that merge themselves once
+ * tombstones pass a quarter of the live items.
+ *
+ * Between merges, "sell the cheapest first" would still pile up tombstones
+ * at the start of the price order. So both arrays keep a [lo, hi) window:
+ * everything outside it is deleted, and lo / hi always sit on a live key.
+ * A remove at either end moves the window inwards, and cheapest() /
+ * mostExpensive() start right at the first live key.
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Consumer;
+
+class ItemCatalog {
+    private static final int MIN_DELTA = 1024;
+
+    private Item[] items;
+    private int nextId;
+    private long[] deleted; // tombstones, one bit per id
+    private int live;
+    private int tombstones; // deleted keys still sitting in main or delta
+
+    // name -> newest id with that name; older ids with the same name are chained through sameName
+    private final Map<String, Integer> nameIndex = new HashMap<>();
+    private int[] sameName;
+
+    private long[] main; // sorted keys
+    private int mainSize;
+    private long[] delta; // sorted keys added since the last merge
+    private int deltaSize;
+    // live windows: keys outside [lo, hi) are all deleted, main[mainLo] and main[mainHi - 1] are live
+    private int mainLo;
+    private int mainHi;
+    private int deltaLo;
+    private int deltaHi;
+
+    private ItemCatalog(int capacity) {
+        items = new Item[Math.max(16, capacity)];
+        sameName = new int[items.length];
+        deleted = new long[(items.length + 63) >>> 6];
+        main = new long[0];
+        delta = new long[MIN_DELTA];
+    }
+
+    public ItemCatalog() {
+        this(16);
+    }
+
+    static long key(int price, int id) {
+        return ((long) price << 32) | (id & 0xFFFF_FFFFL);
+    }
+
+    static int idOf(long key) {
+        return (int) key;
+    }
+
+    // ============ loading ============
+
+    public static ItemCatalog bulkLoad(List<Item> source) {
+        ItemCatalog catalog = new ItemCatalog(source.size());
+        long[] keys = new long[source.size()];
+        for (int i = 0; i < source.size(); i++) {
+            Item item = source.get(i);
+            int id = catalog.nextId++;
+            catalog.items[id] = item;
+            catalog.indexName(item.getName(), id);
+            keys[i] = key(item.getPrice(), id);
+        }
+        Arrays.parallelSort(keys); // one sort instead of n inserts
+        catalog.main = keys;
+        catalog.mainSize = keys.length;
+        catalog.mainHi = keys.length;
+        catalog.live = keys.length;
+        return catalog;
+    }
+
+    public int add(Item item) {
+        int id = nextId++;
+        if (id == items.length) {
+            items = Arrays.copyOf(items, id * 2);
+            sameName = Arrays.copyOf(sameName, id * 2);
+            deleted = Arrays.copyOf(deleted, (items.length + 63) >>> 6);
+        }
+        items[id] = item;
+        indexName(item.getName(), id);
+
+        long key = key(item.getPrice(), id);
+        int pos = lowerBound(delta, 0, deltaSize, key);
+        System.arraycopy(delta, pos, delta, pos + 1, deltaSize - pos);
+        delta[pos] = key;
+        deltaSize++;
+        // the new key is live, so it may become an end of the window; keys at or after pos moved up by one
+        if (deltaLo == deltaHi) {
+            deltaLo = pos;
+            deltaHi = pos + 1;
+        } else {
+            deltaHi = Math.max(deltaHi, pos) + 1;
+            deltaLo = Math.min(deltaLo, pos);
+        }
+        live++;
+        if (deltaSize == delta.length) {
+            mergeDelta();
+        }
+        return id;
+    }
+
+    public boolean remove(int id) {
+        if (id < 0 || id >= nextId || isDeleted(id)) {
+            return false;
+        }
+        deleted[id >>> 6] |= 1L << id;
+        unindexName(items[id].getName(), id);
+        items[id] = null; // tombstoned ids are never read again, let the Item be collected
+        live--;
+        shrinkWindows(id);
+        // merge cost is O(live + tombstones), paid once per live/4 removes: O(1) amortized
+        if (++tombstones > live >> 2) {
+            mergeDelta();
+        }
+        return true;
+    }
+
+    /*
+     * If id was the first or last live key of main or delta, move that end of
+     * the window past it and past any deleted keys behind it. Every key is
+     * stepped over at most once per end between two merges: O(1) amortized.
+     */
+    private void shrinkWindows(int id) {
+        if (mainLo < mainHi && idOf(main[mainLo]) == id) {
+            while (mainLo < mainHi && isDeleted(idOf(main[mainLo]))) {
+                mainLo++;
+            }
+        }
+        if (mainLo < mainHi && idOf(main[mainHi - 1]) == id) {
+            while (mainLo < mainHi && isDeleted(idOf(main[mainHi - 1]))) {
+                mainHi--;
+            }
+        }
+        if (deltaLo < deltaHi && idOf(delta[deltaLo]) == id) {
+            while (deltaLo < deltaHi && isDeleted(idOf(delta[deltaLo]))) {
+                deltaLo++;
+            }
+        }
+        if (deltaLo < deltaHi && idOf(delta[deltaHi - 1]) == id) {
+            while (deltaLo < deltaHi && isDeleted(idOf(delta[deltaHi - 1]))) {
+                deltaHi--;
+            }
+        }
+    }
+
+    public int size() {
+        return live;
+    }
+
+    public Item get(int id) {
+        return id >= 0 && id < nextId && !isDeleted(id) ? items[id] : null;
+    }
+
+    // ============ hash index ============
+
+    public List<Item> findByName(String name) {
+        Integer head = nameIndex.get(name);
+        if (head == null) {
+            return Collections.emptyList();
+        }
+        List<Item> result = new ArrayList<>();
+        for (int id = head; id >= 0; id = sameName[id]) {
+            result.add(items[id]);
+        }
+        return result;
+    }
+
+    private void indexName(String name, int id) {
+        Integer head = nameIndex.put(name, id);
+        sameName[id] = head == null ? -1 : head;
+    }
+
+    // Chains are as long as the number of items sharing one name, usually 1.
+    private void unindexName(String name, int id) {
+        int head = nameIndex.get(name);
+        if (head == id) {
+            if (sameName[id] < 0) {
+                nameIndex.remove(name);
+            } else {
+                nameIndex.put(name, sameName[id]);
+            }
+            return;
+        }
+        int prev = head;
+        while (sameName[prev] != id) {
+            prev = sameName[prev];
+        }
+        sameName[prev] = sameName[id];
+    }
+
+    // ============ price index ============
+
+    // Items with minPrice <= price <= maxPrice, cheapest first. O(log n + k).
+    public void forEachInPriceRange(int minPrice, int maxPrice, Consumer<Item> action) {
+        if (minPrice > maxPrice) {
+            return;
+        }
+        long from = key(minPrice, 0);
+        long to = key(maxPrice, -1); // -1 = 0xFFFFFFFF, the largest id part
+        int m = lowerBound(main, mainLo, mainHi, from);
+        int d = lowerBound(delta, deltaLo, deltaHi, from);
+        while (true) {
+            long next;
+            if (m < mainHi && (d >= deltaHi || main[m] < delta[d])) {
+                next = main[m++];
+            } else if (d < deltaHi) {
+                next = delta[d++];
+            } else {
+                return;
+            }
+            if (next > to) {
+                return;
+            }
+            if (!isDeleted(idOf(next))) {
+                action.accept(items[idOf(next)]);
+            }
+        }
+    }
+
+    public List<Item> findInPriceRange(int minPrice, int maxPrice) {
+        List<Item> result = new ArrayList<>();
+        forEachInPriceRange(minPrice, maxPrice, result::add);
+        return result;
+    }
+
+    /*
+     * The k cheapest items, cheapest first. Starts at the first live key, so
+     * deleted keys before it cost nothing; only tombstones in between the k
+     * results are stepped over, and a merge drops those by live/4 at the latest.
+     */
+    public List<Item> cheapest(int k) {
+        List<Item> result = new ArrayList<>(k);
+        int m = mainLo;
+        int d = deltaLo;
+        while (result.size() < k && (m < mainHi || d < deltaHi)) {
+            long next = m < mainHi && (d >= deltaHi || main[m] < delta[d]) ? main[m++] : delta[d++];
+            if (!isDeleted(idOf(next))) {
+                result.add(items[idOf(next)]);
+            }
+        }
+        return result;
+    }
+
+    // The k most expensive items, most expensive first. Same window trick from the other end.
+    public List<Item> mostExpensive(int k) {
+        List<Item> result = new ArrayList<>(k);
+        int m = mainHi - 1;
+        int d = deltaHi - 1;
+        while (result.size() < k && (m >= mainLo || d >= deltaLo)) {
+            long next = m >= mainLo && (d < deltaLo || main[m] > delta[d]) ? main[m--] : delta[d--];
+            if (!isDeleted(idOf(next))) {
+                result.add(items[idOf(next)]);
+            }
+        }
+        return result;
+    }
+
+    /*
+     * Linear merge of two sorted arrays, dropping tombstones on the way.
+     * O(n), but it only happens once every delta.length inserts (or live/4
+     * removes). The delta grows with sqrt(n), so inserts stay cheap at any
+     * catalog size.
+     */
+    private void mergeDelta() {
+        long[] merged = new long[(mainHi - mainLo) + (deltaHi - deltaLo)];
+        int m = mainLo; // outside the windows everything is deleted anyway
+        int d = deltaLo;
+        int out = 0;
+        while (m < mainHi || d < deltaHi) {
+            long next = m < mainHi && (d >= deltaHi || main[m] < delta[d]) ? main[m++] : delta[d++];
+            if (!isDeleted(idOf(next))) {
+                merged[out++] = next;
+            }
+        }
+        main = merged;
+        mainSize = out;
+        mainLo = 0;
+        mainHi = out;
+        deltaSize = 0;
+        deltaLo = 0;
+        deltaHi = 0;
+        tombstones = 0;
+        int wanted = Math.max(MIN_DELTA, (int) Math.sqrt(mainSize) * 4);
+        if (delta.length < wanted) {
+            delta = new long[wanted];
+        }
+    }
+
+    private boolean isDeleted(int id) {
+        return (deleted[id >>> 6] & (1L << id)) != 0;
+    }
+
+    private static int lowerBound(long[] keys, int from, int to, long key) {
+        int lo = from;
+        int hi = to;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
+
+class ItemCatalogDemo {
+    public static void main(String[] args) {
+        int n = 5_000_000;
+        Random random = new Random(3);
+        List<Item> source = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            source.add(new Item("Item " + i, 1 + random.nextInt(100_000)));
+        }
+
+        long start = System.nanoTime();
+        ItemCatalog catalog = ItemCatalog.bulkLoad(source);
+        System.out.printf("Bulk load (sort once): %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        start = System.nanoTime();
+        ItemCatalog oneByOne = new ItemCatalog();
+        for (Item item : source) {
+            oneByOne.add(item);
+        }
+        System.out.printf("One insert at a time:  %,d ms%n", (System.nanoTime() - start) / 1_000_000);
+
+        System.out.println("findByName: " + catalog.findByName("Item 42").get(0).getPrice());
+
+        start = System.nanoTime();
+        int indexed = catalog.findInPriceRange(100, 200).size();
+        long indexNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        int scanned = 0;
+        for (Item item : source) {
+            if (item.getPrice() >= 100 && item.getPrice() <= 200) {
+                scanned++;
+            }
+        }
+        long scanNanos = System.nanoTime() - start;
+        System.out.printf("Price 100..200: index %,d items in %,d us, scan %,d items in %,d us%n",
+                indexed, indexNanos / 1000, scanned, scanNanos / 1000);
+
+        System.out.print("3 cheapest:");
+        for (Item item : catalog.cheapest(3)) {
+            System.out.print(" " + item.getName() + "=" + item.getPrice());
+        }
+        System.out.print("\n3 most expensive:");
+        for (Item item : catalog.mostExpensive(3)) {
+            System.out.print(" " + item.getName() + "=" + item.getPrice());
+        }
+        System.out.println();
+
+        int id = catalog.add(new Item("Bargain", 0));
+        System.out.println("After add, cheapest: " + catalog.cheapest(1).get(0).getName()); // Bargain
+        catalog.remove(id);
+        System.out.println("After remove, cheapest: " + catalog.cheapest(1).get(0).getName());
+
+        // delete the cheapest 40%: every remove moves the start of the live window,
+        // so cheapest() never steps over the 2 million tombstones
+        long[] byPrice = new long[n];
+        for (int i = 0; i < n; i++) {
+            byPrice[i] = ItemCatalog.key(source.get(i).getPrice(), i);
+        }
+        Arrays.sort(byPrice);
+        start = System.nanoTime();
+        for (int i = 0; i < n * 2 / 5; i++) {
+            catalog.remove(ItemCatalog.idOf(byPrice[i]));
+        }
+        long removeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        Item first = catalog.cheapest(1).get(0);
+        System.out.printf("Removed %,d items in %,d ms, cheapest now %s=%d found in %,d us%n", n * 2 / 5,
+                removeNanos / 1_000_000, first.getName(), first.getPrice(), (System.nanoTime() - start) / 1000);
+    }
+}
+
+/*
+ * Same trade-offs as in the SQL notes:
+ * - every index costs memory (here: 8 bytes per item + the hash map)
+ * - writes get slower (every insert also updates both indexes)
+ * - reads that use the index get dramatically faster
+ * Index the columns you actually filter or sort on, nothing more.
+ */
@@ -0,0 +1,709 @@
+/*
+ * Loading cache managed by a singleton
+ *
+ * singelton.java lists caching as a classic singleton use case. This file
+ * builds the cache itself. A plain memoiser looks like this:
+ *
+ *     Map<K, V> map = new ConcurrentHashMap<>();
+ *     V value = map.computeIfAbsent(key, loader);
+ *
+ * Three problems:
+ * 1 - It never forgets. Memory grows until OutOfMemoryError.
+ * 2 - When it is bounded, WHICH entry to drop matters a lot.
+ *     LRU drops the least recently used entry. But one scan over
+ *     many cold keys pushes all the hot keys out.
+ * 3 - Values get stale, and reloading on expiry makes the unlucky caller wait.
+ *
+ * What we build instead:
+ *
+ * 1 - Size / weight bound
+ *     Every entry has a weight (1 by default, or e.g. its size in bytes).
+ *     The total weight stays under maximumWeight.
+ *
+ * 2 - W-TinyLFU admission + eviction (the policy used by Caffeine)
+ *
+ *        new entry -> [ window LRU 1% ] --candidate--> [ main: probation 20% | protected 80% ]
+ *
+ *     - New entries first land in a small LRU "window". It absorbs bursts.
+ *     - When the cache is full, the window's oldest entry (candidate) competes
+ *       with main's oldest entry (victim). The one that was used more often
+ *       stays. "How often" comes from a Count-Min sketch: a tiny table of
+ *       4-bit counters that estimates frequency for ANY key, even evicted ones.
+ *     - An entry hit a second time in probation is promoted to protected.
+ *     - Counters are halved every 10 x capacity accesses, so old popularity fades.
+ *
+ * 3 - Single-flight loading
+ *     100 threads miss the same key at the same time -> ONE load runs,
+ *     the other 99 wait for its result (no "thundering herd" on the database).
+ *
+ * 4 - Refresh-ahead
+ *     refreshAfterWrite < expireAfterWrite. If an entry is read after the
+ *     refresh time, the caller still gets the current value immediately and a
+ *     reload starts in the background. Hot entries are reloaded before they
+ *     expire, so callers never wait for them. Cold entries just expire.
+ */
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.ToIntBiFunction;
+
+// ============ Count-Min sketch with 4-bit counters ============
+
+class FrequencySketch {
+    private static final long RESET_MASK = 0x7777_7777_7777_7777L;
+    private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+            0xcbf29ce484222325L };
+
+    private final long[] table; // 16 counters per long
+    private final int tableMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(long capacity) {
+        int size = Integer.highestOneBit((int) Math.min(Math.max(capacity, 16), 1 << 24) * 2 - 1);
+        this.table = new long[size];
+        this.tableMask = size - 1;
+        this.sampleSize = (int) Math.min(10L * capacity, Integer.MAX_VALUE);
+    }
+
+    public int frequency(int hash) {
+        int min = 15;
+        for (int row = 0; row < 4; row++) {
+            long h = rehash(hash, row);
+            int index = (int) h & tableMask;
+            int shift = (int) (h >>> 60) << 2; // which of the 16 nibbles
+            min = Math.min(min, (int) ((table[index] >>> shift) & 0xF));
+        }
+        return min;
+    }
+
+    public void increment(int hash) {
+        boolean added = false;
+        for (int row = 0; row < 4; row++) {
+            long h = rehash(hash, row);
+            int index = (int) h & tableMask;
+            int shift = (int) (h >>> 60) << 2;
+            if (((table[index] >>> shift) & 0xF) != 0xF) {
+                table[index] += 1L << shift;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    // Aging: halve every counter so yesterday's hot keys don't stay hot forever.
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private static long rehash(int hash, int row) {
+        long h = (hash + SEEDS[row]) * SEEDS[row];
+        return h ^ (h >>> 29);
+    }
+}
+
+// ============ The cache ============
+
+class LoadingCache<K, V> {
+    private static final byte WINDOW = 0;
+    private static final byte PROBATION = 1;
+    private static final byte PROTECTED = 2;
+    private static final byte REMOVED = 3;
+
+    static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile long writeNanos;
+        int weight;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        // policy fields, guarded by evictionLock
+        byte queue;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, int weight, long now) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeNanos = now;
+        }
+    }
+
+    // Doubly linked list, oldest first. Moving a node to the end is O(1).
+    static final class AccessDeque<K, V> {
+        final Node<K, V> head = new Node<>(null, null, 0, 0);
+        long weight;
+
+        AccessDeque() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node<K, V> first() {
+            return head.next == head ? null : head.next;
+        }
+
+        Node<K, V> last() {
+            return head.prev == head ? null : head.prev;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            weight += node.weight;
+        }
+
+        void remove(Node<K, V> node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            weight -= node.weight;
+        }
+
+        void moveToLast(Node<K, V> node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Function<? super K, ? extends V> loader;
+    private final ToIntBiFunction<? super K, ? super V> weigher;
+    private final Executor refreshExecutor;
+    private final long expireNanos;
+    private final long refreshNanos;
+
+    // eviction policy state, only touched while holding evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch sketch;
+    private final AccessDeque<K, V> window = new AccessDeque<>();
+    private final AccessDeque<K, V> probation = new AccessDeque<>();
+    private final AccessDeque<K, V> protectedQueue = new AccessDeque<>();
+    private final long maximumWeight;
+    private final long windowMaximum;
+    private final long protectedMaximum;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+    final LongAdder loads = new LongAdder();
+    final LongAdder loadFailures = new LongAdder();
+    final LongAdder refreshes = new LongAdder();
+    final LongAdder evictions = new LongAdder();
+
+    public LoadingCache(long maximumSize, Function<? super K, ? extends V> loader) {
+        this(maximumSize, (k, v) -> 1, null, null, loader, Runnable::run);
+    }
+
+    /*
+     * maximumWeight    upper bound for the sum of all entry weights
+     * weigher          weight of one entry, e.g. (k, v) -> v.length
+     * expireAfterWrite entries older than this are reloaded on the next read (null = never)
+     * refreshAfterWrite entries older than this are reloaded in the background (null = never)
+     * refreshExecutor  where background reloads run
+     */
+    public LoadingCache(long maximumWeight, ToIntBiFunction<? super K, ? super V> weigher,
+            Duration expireAfterWrite, Duration refreshAfterWrite,
+            Function<? super K, ? extends V> loader, Executor refreshExecutor) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("maximumWeight must be positive");
+        }
+        this.maximumWeight = maximumWeight;
+        this.windowMaximum = Math.max(1, maximumWeight / 100);
+        this.protectedMaximum = (long) ((maximumWeight - windowMaximum) * 0.8);
+        this.sketch = new FrequencySketch(maximumWeight);
+        this.weigher = weigher;
+        this.loader = loader;
+        this.refreshExecutor = refreshExecutor;
+        this.expireNanos = expireAfterWrite == null ? Long.MAX_VALUE : expireAfterWrite.toNanos();
+        this.refreshNanos = refreshAfterWrite == null ? Long.MAX_VALUE : refreshAfterWrite.toNanos();
+    }
+
+    // ============ reads ============
+
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        long now = System.nanoTime();
+        if (node != null) {
+            long age = now - node.writeNanos;
+            if (age < expireNanos) {
+                hits.increment();
+                afterRead(node);
+                if (age >= refreshNanos) {
+                    refreshAhead(node);
+                }
+                return node.value;
+            }
+        }
+        misses.increment();
+        return loadSingleFlight(key);
+    }
+
+    public V getIfPresent(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null || System.nanoTime() - node.writeNanos >= expireNanos) {
+            return null;
+        }
+        afterRead(node);
+        return node.value;
+    }
+
+    /*
+     * Only the first thread that misses a key runs the loader. Everybody else
+     * finds its future in inFlight and waits for the same result.
+     * A caller can miss in data, then lose the race to a load that finishes
+     * and leaves inFlight before our putIfAbsent. So after winning inFlight we
+     * look in data once more, and only load if the value still isn't there.
+     */
+    private V loadSingleFlight(K key) {
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> running = inFlight.putIfAbsent(key, mine);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            Node<K, V> node = data.get(key);
+            if (node != null && System.nanoTime() - node.writeNanos < expireNanos) {
+                mine.complete(node.value); // loaded by the thread we just raced with
+                return node.value;
+            }
+            V value = loader.apply(key);
+            loads.increment();
+            if (value != null) {
+                put(key, value);
+            }
+            mine.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Errors too: a waiter in join(running) must never be left hanging
+            loadFailures.increment();
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, mine);
+        }
+    }
+
+    private void refreshAhead(Node<K, V> node) {
+        if (!node.refreshing.compareAndSet(false, true)) {
+            return; // somebody already refreshes it
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    V value = loader.apply(node.key);
+                    refreshes.increment();
+                    if (value != null) {
+                        replace(node, value);
+                    }
+                } catch (RuntimeException e) {
+                    loadFailures.increment(); // keep serving the old value
+                } finally {
+                    node.refreshing.set(false);
+                }
+            });
+        } catch (RuntimeException rejected) {
+            node.refreshing.set(false);
+        }
+    }
+
+    private static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    // ============ writes ============
+
+    public void put(K key, V value) {
+        Node<K, V> node = new Node<>(key, value, weigher.applyAsInt(key, value), System.nanoTime());
+        evictionLock.lock();
+        try {
+            Node<K, V> old = data.put(key, node);
+            if (old != null) {
+                unlink(old);
+            }
+            sketch.increment(key.hashCode());
+            node.queue = WINDOW;
+            window.addLast(node);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public void invalidate(K key) {
+        evictionLock.lock();
+        try {
+            Node<K, V> node = data.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void replace(Node<K, V> node, V value) {
+        evictionLock.lock();
+        try {
+            if (node.queue == REMOVED) {
+                return; // evicted while the refresh was running
+            }
+            int weight = weigher.applyAsInt(node.key, value);
+            queueOf(node).weight += weight - node.weight;
+            node.weight = weight;
+            node.value = value;
+            node.writeNanos = System.nanoTime();
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long size() {
+        return data.size();
+    }
+
+    public long weightedSize() {
+        evictionLock.lock();
+        try {
+            return window.weight + probation.weight + protectedQueue.weight;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public double hitRatio() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 1.0 : (double) h / total;
+    }
+
+    // ============ policy ============
+
+    /*
+     * Reads must stay fast, so they don't wait for the lock. If another thread
+     * holds it, this access is simply not recorded. The policy is a heuristic,
+     * a few lost reorders under contention don't matter.
+     */
+    private void afterRead(Node<K, V> node) {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            sketch.increment(node.key.hashCode());
+            switch (node.queue) {
+                case WINDOW:
+                    window.moveToLast(node);
+                    break;
+                case PROBATION:
+                    // second hit in main: promote to protected
+                    probation.remove(node);
+                    node.queue = PROTECTED;
+                    protectedQueue.addLast(node);
+                    demoteProtectedOverflow();
+                    break;
+                case PROTECTED:
+                    protectedQueue.moveToLast(node);
+                    break;
+                default:
+                    // removed meanwhile
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void demoteProtectedOverflow() {
+        while (protectedQueue.weight > protectedMaximum) {
+            Node<K, V> oldest = protectedQueue.first();
+            protectedQueue.remove(oldest);
+            oldest.queue = PROBATION;
+            probation.addLast(oldest);
+        }
+    }
+
+    private void evict() {
+        // 1. overflowing window entries become candidates at the end of probation
+        while (window.weight > windowMaximum) {
+            Node<K, V> candidate = window.first();
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+        }
+        // 2. while too heavy: the newest candidate fights the oldest victim, the less frequent one leaves
+        while (window.weight + probation.weight + protectedQueue.weight > maximumWeight) {
+            Node<K, V> victim = probation.first();
+            Node<K, V> candidate = probation.last();
+            if (victim == null) {
+                victim = protectedQueue.first() != null ? protectedQueue.first() : window.first();
+                evictEntry(victim);
+            } else if (victim == candidate) {
+                evictEntry(victim);
+            } else if (sketch.frequency(candidate.key.hashCode()) > sketch.frequency(victim.key.hashCode())) {
+                evictEntry(victim);
+            } else {
+                evictEntry(candidate);
+            }
+        }
+    }
+
+    private void evictEntry(Node<K, V> node) {
+        data.remove(node.key, node);
+        unlink(node);
+        evictions.increment();
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.queue != REMOVED) {
+            queueOf(node).remove(node);
+            node.queue = REMOVED;
+        }
+    }
+
+    private AccessDeque<K, V> queueOf(Node<K, V> node) {
+        switch (node.queue) {
+            case WINDOW:
+                return window;
+            case PROBATION:
+                return probation;
+            default:
+                return protectedQueue;
+        }
+    }
+}
+
+// ============ The singleton ============
+
+/*
+ * Bill Pugh holder idiom from singelton.java: the instance is created the
+ * first time getInstance() is called, and the JVM's class initialization
+ * makes that thread safe without any locking on later calls.
+ *
+ * One manager per process owns every named cache and the shared background
+ * refresh pool, so two parts of the app asking for "users" get the same cache.
+ */
+class CacheManager {
+    private final Map<String, LoadingCache<?, ?>> caches = new ConcurrentHashMap<>();
+    private final ExecutorService refreshPool = Executors.newFixedThreadPool(2, r -> {
+        Thread thread = new Thread(r, "cache-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private CacheManager() {
+    }
+
+    private static class SingletonHelper {
+        private static final CacheManager INSTANCE = new CacheManager();
+    }
+
+    public static CacheManager getInstance() {
+        return SingletonHelper.INSTANCE;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <K, V> LoadingCache<K, V> cache(String name, long maximumSize, Duration expireAfterWrite,
+            Duration refreshAfterWrite, Function<? super K, ? extends V> loader) {
+        return (LoadingCache<K, V>) caches.computeIfAbsent(name, n -> new LoadingCache<K, V>(maximumSize,
+                (k, v) -> 1, expireAfterWrite, refreshAfterWrite, loader, refreshPool));
+    }
+
+    public Executor refreshExecutor() {
+        return refreshPool;
+    }
+}
+
+// ============ Benchmarks ============
+
+// Zipf: a few keys get most of the traffic, like real product pages or users.
+class ZipfianGenerator {
+    private final double[] cumulative;
+    private final Random random;
+
+    ZipfianGenerator(int items, double skew, long seed) {
+        cumulative = new double[items];
+        double sum = 0;
+        for (int i = 0; i < items; i++) {
+            sum += 1.0 / Math.pow(i + 1, skew);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < items; i++) {
+            cumulative[i] /= sum;
+        }
+        random = new Random(seed);
+    }
+
+    int next() {
+        int index = java.util.Arrays.binarySearch(cumulative, random.nextDouble());
+        return index >= 0 ? index : -index - 1;
+    }
+
+    int[] trace(int length) {
+        int[] keys = new int[length];
+        for (int i = 0; i < length; i++) {
+            // scramble so hot keys are not simply the small numbers
+            keys[i] = Integer.reverse(next() * 0x9E3779B9);
+        }
+        return keys;
+    }
+}
+
+class LoadingCacheDemo {
+    static final LongAdder LOADS = new LongAdder();
+
+    static String load(Integer key) {
+        LOADS.increment();
+        long x = 0;
+        for (int i = 0; i < 2_000; i++) {
+            x += i ^ key; // pretend this is a database call
+        }
+        return "value-" + key + "-" + (x & 1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        singleFlight();
+
+        int[] trace = new ZipfianGenerator(1_000_000, 0.99, 1).trace(2_000_000);
+        int capacity = 10_000;
+        System.out.println("\nZipf(0.99) over 1M keys, 2M requests, capacity " + capacity);
+
+        // hit ratio, single thread
+        LoadingCache<Integer, String> tinyLfu = new LoadingCache<>(capacity, LoadingCacheDemo::load);
+        Map<Integer, String> lru = new LinkedHashMap<>(capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > capacity;
+            }
+        };
+        long lruHits = 0;
+        for (int key : trace) {
+            tinyLfu.get(key);
+            if (lru.get(key) != null) {
+                lruHits++;
+            } else {
+                lru.put(key, load(key));
+            }
+        }
+        Map<Integer, String> memo = new ConcurrentHashMap<>();
+        long memoHits = 0;
+        for (int key : trace) {
+            if (memo.get(key) != null) {
+                memoHits++;
+            } else {
+                memo.computeIfAbsent(key, LoadingCacheDemo::load);
+            }
+        }
+        System.out.printf("W-TinyLFU hit ratio %.3f (%,d entries kept)%n", tinyLfu.hitRatio(), tinyLfu.size());
+        System.out.printf("LRU       hit ratio %.3f (%,d entries kept)%n", (double) lruHits / trace.length, lru.size());
+        System.out.printf("CHM memo  hit ratio %.3f (%,d entries kept, unbounded)%n",
+                (double) memoHits / trace.length, memo.size());
+
+        // throughput, all cores
+        int threads = Runtime.getRuntime().availableProcessors();
+        LoadingCache<Integer, String> shared = new LoadingCache<>(capacity, LoadingCacheDemo::load);
+        Map<Integer, String> sharedMemo = new ConcurrentHashMap<>();
+        System.out.printf("W-TinyLFU %,d ops/s with %d threads%n",
+                throughput(threads, trace, shared::get), threads);
+        System.out.printf("CHM memo  %,d ops/s with %d threads%n",
+                throughput(threads, trace, key -> sharedMemo.computeIfAbsent(key, LoadingCacheDemo::load)), threads);
+    }
+
+    // 50 threads miss the same key at once; the loader must run once.
+    static void singleFlight() throws InterruptedException {
+        LoadingCache<Integer, String> cache = CacheManager.getInstance().cache("demo", 100,
+                Duration.ofMinutes(10), Duration.ofMinutes(5), key -> {
+                    LOADS.increment();
+                    sleepQuietly(100);
+                    return "value-" + key;
+                });
+        LOADS.reset();
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] callers = new Thread[50];
+        for (int i = 0; i < callers.length; i++) {
+            callers[i] = new Thread(() -> {
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                cache.get(42);
+            });
+            callers[i].start();
+        }
+        go.countDown();
+        for (Thread caller : callers) {
+            caller.join();
+        }
+        System.out.println("50 concurrent misses -> loader calls: " + LOADS.sum()); // 1
+        System.out.println("Same cache from the singleton: "
+                + (cache == CacheManager.getInstance().<Integer, String>cache("demo", 100, null, null, k -> null)));
+    }
+
+    static long throughput(int threads, int[] trace, Function<Integer, String> get) throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * (trace.length / threads);
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < trace.length; i++) {
+                    get.apply(trace[(offset + i) % trace.length]);
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (long) threads * trace.length * 1_000_000_000L / (System.nanoTime() - start);
+    }
+
+    static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
+
+/*
+ * Reading the results:
+ * - The unbounded memoiser has the best hit ratio: it simply keeps everything.
+ *   That is exactly the memory problem we started with.
+ * - With the same bound, W-TinyLFU beats LRU on skewed traffic because
+ *   one-hit wonders never push frequently used keys out.
+ * - Throughput of the bounded cache is lower than a bare map: eviction costs
+ *   something. Caffeine removes most of that with lock-free read buffers.
+ */
@@ -0,0 +1,414 @@
+/*
+ * Live metrics: lock-free counters and latency histograms
+ *
+ * JFR (flight_recorder.java) is great for looking back at a recording.
+ * For live dashboards we want numbers that are always on:
+ *     - how long does PaymentStrategy.pay take, per strategy? (p50, p99, max)
+ *     - how long does each Observer.update take?
+ *     - how deep are the queues right now?
+ *
+ * The recording side runs on every call, so it must be cheap:
+ *     no locks        -> threads never wait for each other
+ *     no allocation   -> no GC pressure from measuring
+ *
+ * Building blocks:
+ *
+ * 1 - Striped counter (java.util.concurrent.atomic.LongAdder)
+ *     One AtomicLong that every thread increments becomes a hot spot:
+ *     all cores fight over the same cache line. LongAdder keeps several
+ *     cells and lets each thread hit a different one. sum() adds them up.
+ *
+ * 2 - Log-bucketed histogram (the HdrHistogram idea)
+ *     We can't keep every latency. Instead count them in buckets:
+ *         0..63 ns         -> one bucket per nanosecond
+ *         64..127 ns       -> 32 buckets, 2 ns wide
+ *         128..255 ns      -> 32 buckets, 4 ns wide
+ *         ...              -> every power of two is split into 32 buckets
+ *     So the error is at most 1/32 (~3%) at any scale, from nanoseconds
+ *     to minutes, with under 2,000 buckets. Finding the bucket is a few
+ *     bit operations, recording is one atomic increment.
+ *
+ * 3 - Interval snapshots
+ *     A reporter takes getAndSet(0) of every bucket. Each recorded value
+ *     ends up in exactly one interval, nothing is lost or counted twice.
+ *     The max is reset separately, so it can land one interval off
+ *     (see intervalSnapshot).
+ *
+ * 4 - Decorators
+ *     MeteredPaymentStrategy / MeteredObserver wrap the existing classes.
+ *     The originals don't change; callers just pass the wrapped object.
+ */
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.time.LocalTime;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// ============ Histogram ============
+
+class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_COUNT = 1 << SUB_BITS; // 32 buckets per power of two
+    static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    // A few copies of the bucket array; each thread records into "its" copy,
+    // so two cores rarely increment the same cache line. Same trick as LongAdder.
+    // One copy is ~15 KB; capped so a 64 core box doesn't spend 2 MB per histogram.
+    private static final int MAX_STRIPES = 8;
+    private final AtomicLongArray[] stripes;
+    private final int stripeMask;
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {
+        int cores = Math.min(MAX_STRIPES, Math.max(1, Runtime.getRuntime().availableProcessors()));
+        int n = Integer.highestOneBit(cores * 2 - 1);
+        stripes = new AtomicLongArray[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+        stripeMask = n - 1;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < 2 * SUB_COUNT) {
+            return (int) Math.max(0, value);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift << SUB_BITS) + (int) (value >>> shift);
+    }
+
+    // smallest value that lands in this bucket
+    static long bucketLowerBound(int index) {
+        if (index < 2 * SUB_COUNT) {
+            return index;
+        }
+        int shift = (index >>> SUB_BITS) - 1;
+        long mantissa = (index & (SUB_COUNT - 1)) + SUB_COUNT;
+        return mantissa << shift;
+    }
+
+    // The hot path: no lock, no allocation.
+    public void record(long nanos) {
+        int stripe = (int) Thread.currentThread().getId() & stripeMask;
+        stripes[stripe].getAndIncrement(bucketIndex(nanos));
+        max.accumulate(nanos);
+    }
+
+    /*
+     * Counts since the previous call. Buckets are drained one by one with getAndSet(0).
+     *
+     * The max is a separate variable and is NOT reset in the same atomic step:
+     * a value recorded while we drain can put its count in this interval and
+     * its max in the next one, or the other way round. So the raw max is only
+     * a hint; it is pulled into the highest non-empty bucket, which is exact
+     * to within that bucket's width (~3%) and always agrees with the counts.
+     */
+    public HistogramSnapshot intervalSnapshot() {
+        long[] counts = new long[BUCKETS];
+        int highest = -1;
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                if (stripe.get(i) != 0) {
+                    counts[i] += stripe.getAndSet(i, 0);
+                    highest = Math.max(highest, i);
+                }
+            }
+        }
+        long recordedMax = max.getThenReset();
+        if (highest < 0) {
+            return new HistogramSnapshot(counts, 0);
+        }
+        long lower = bucketLowerBound(highest);
+        long upper = highest + 1 < BUCKETS ? bucketLowerBound(highest + 1) - 1 : Long.MAX_VALUE;
+        return new HistogramSnapshot(counts, Math.max(lower, Math.min(upper, recordedMax)));
+    }
+}
+
+class HistogramSnapshot {
+    private final long[] counts;
+    private final long count;
+    private final long max;
+
+    HistogramSnapshot(long[] counts, long max) {
+        this.counts = counts;
+        long n = 0;
+        for (long c : counts) {
+            n += c;
+        }
+        this.count = n;
+        this.max = max;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    // p in [0, 100]. Returns the lower bound of the bucket holding that rank (within ~3%).
+    public long percentile(double p) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.bucketLowerBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    public double mean() {
+        if (count == 0) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < counts.length; i++) {
+            sum += (double) counts[i] * LatencyHistogram.bucketLowerBound(i);
+        }
+        return sum / count;
+    }
+}
+
+// ============ Registry ============
+
+/*
+ * Name -> metric. The map is only used when a metric is created or looked up;
+ * decorators keep a direct reference, so recording never touches the map.
+ */
+class MetricsRegistry {
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final Map<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    public LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    // A gauge is read at report time, e.g. () -> queue.size()
+    public void gauge(String name, LongSupplier value) {
+        gauges.put(name, value);
+    }
+
+    public Map<String, HistogramSnapshot> snapshotHistograms() {
+        Map<String, HistogramSnapshot> result = new TreeMap<>();
+        histograms.forEach((name, histogram) -> result.put(name, histogram.intervalSnapshot()));
+        return result;
+    }
+
+    // Counters report the change since the last call.
+    public Map<String, Long> snapshotCounters() {
+        Map<String, Long> result = new TreeMap<>();
+        counters.forEach((name, counter) -> result.put(name, counter.sumThenReset()));
+        return result;
+    }
+
+    public Map<String, Long> snapshotGauges() {
+        Map<String, Long> result = new TreeMap<>();
+        gauges.forEach((name, gauge) -> result.put(name, gauge.getAsLong()));
+        return result;
+    }
+}
+
+// ============ Decorators ============
+
+class MeteredPaymentStrategy implements PaymentStrategy {
+    private final PaymentStrategy delegate;
+    private final LatencyHistogram latency;
+    private final LongAdder failures;
+
+    public MeteredPaymentStrategy(PaymentStrategy delegate, MetricsRegistry registry) {
+        this.delegate = delegate;
+        String name = "payment." + delegate.getClass().getSimpleName();
+        this.latency = registry.histogram(name + ".latency");
+        this.failures = registry.counter(name + ".failures");
+    }
+
+    @Override
+    public void pay(int amount) {
+        long start = System.nanoTime();
+        try {
+            delegate.pay(amount);
+        } catch (RuntimeException e) {
+            failures.increment();
+            throw e;
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+}
+
+class MeteredObserver implements Observer {
+    private final Observer delegate;
+    private final LatencyHistogram latency;
+
+    public MeteredObserver(Observer delegate, String name, MetricsRegistry registry) {
+        this.delegate = delegate;
+        this.latency = registry.histogram("observer." + name + ".update");
+    }
+
+    @Override
+    public void update(String message) {
+        long start = System.nanoTime();
+        try {
+            delegate.update(message);
+        } finally {
+            latency.record(System.nanoTime() - start);
+        }
+    }
+}
+
+// ============ Reporter ============
+
+class MetricsReporter implements AutoCloseable {
+    private final MetricsRegistry registry;
+    private final PrintStream out;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static MetricsReporter toStdout(MetricsRegistry registry) {
+        return new MetricsReporter(registry, System.out);
+    }
+
+    public static MetricsReporter toFile(MetricsRegistry registry, Path file) throws IOException {
+        return new MetricsReporter(registry, new PrintStream(new FileOutputStream(file.toFile(), true), true));
+    }
+
+    private MetricsReporter(MetricsRegistry registry, PrintStream out) {
+        this.registry = registry;
+        this.out = out;
+    }
+
+    public MetricsReporter start(long period, TimeUnit unit) {
+        scheduler.scheduleAtFixedRate(this::report, period, period, unit);
+        return this;
+    }
+
+    public void report() {
+        out.println("---- metrics " + LocalTime.now() + " ----");
+        registry.snapshotHistograms().forEach((name, s) -> {
+            if (s.count() > 0) {
+                out.printf("%-45s n=%-8d p50=%-8s p90=%-8s p99=%-8s max=%s%n", name, s.count(),
+                        micros(s.percentile(50)), micros(s.percentile(90)),
+                        micros(s.percentile(99)), micros(s.max()));
+            }
+        });
+        registry.snapshotCounters().forEach((name, delta) -> out.printf("%-45s +%d%n", name, delta));
+        registry.snapshotGauges().forEach((name, value) -> out.printf("%-45s %d%n", name, value));
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1fus", nanos / 1000.0);
+    }
+
+    // Waits for a report that is still running, so the last one isn't interleaved with it.
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(5, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report(); // flush the last interval
+        if (out != System.out) {
+            out.close();
+        }
+    }
+}
+
+class MetricsDemo {
+    public static void main(String[] args) throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+
+        // Quiet strategies, so the console shows metrics and not "Paid with ..." lines.
+        PaymentStrategy card = new MeteredPaymentStrategy(new QuietCard(), registry);
+        PaymentStrategy paypal = new MeteredPaymentStrategy(new SlowPaypal(), registry);
+
+        Subject subject = new ConcreteSubject();
+        subject.addObserver(new MeteredObserver(message -> busyWork(500), "fast", registry));
+        subject.addObserver(new MeteredObserver(message -> busyWork(20_000), "slow", registry));
+
+        // notifications go through a bounded queue; its depth is a gauge
+        ArrayBlockingQueue<Runnable> queue = new ArrayBlockingQueue<>(10_000);
+        ThreadPoolExecutor notifier = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, queue,
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        registry.gauge("observer.queue.depth", queue::size);
+
+        MetricsReporter reporter = MetricsReporter.toStdout(registry).start(500, TimeUnit.MILLISECONDS);
+        try {
+            long end = System.currentTimeMillis() + 1_600;
+            int i = 0;
+            while (System.currentTimeMillis() < end) {
+                (i % 4 == 0 ? paypal : card).pay(100);
+                int n = i++;
+                notifier.execute(() -> subject.notifyObservers("event " + n));
+            }
+            notifier.shutdown();
+            notifier.awaitTermination(10, TimeUnit.SECONDS);
+        } finally {
+            reporter.close();
+        }
+    }
+
+    static class QuietCard implements PaymentStrategy {
+        @Override
+        public void pay(int amount) {
+            busyWork(2_000);
+        }
+    }
+
+    static class SlowPaypal implements PaymentStrategy {
+        @Override
+        public void pay(int amount) {
+            busyWork(ThreadLocalRandom.current().nextInt(100) == 0 ? 500_000 : 10_000); // 1% slow calls
+        }
+    }
+
+    static volatile long sink;
+
+    static void busyWork(int iterations) {
+        long x = 0;
+        for (int i = 0; i < iterations; i++) {
+            x += i * 31L;
+        }
+        sink = x;
+    }
+}
+
+/*
+ * Things to notice in the output:
+ * - PaypalPayment's p99 is far above its p50: the 1% slow calls. An average
+ *   would have hidden them, that's why we keep histograms and not means.
+ * - observer.slow.update dominates the notification time.
+ * - observer.queue.depth grows when notifications are produced faster than
+ *   the slow observer can consume them.
+ */
@@ -0,0 +1,350 @@
+/*
+ * Adaptive concurrency limit + rate cap in front of a PaymentStrategy
+ *
+ * The payment processor behind CreditCardPayment / PaypalPayment can only
+ * work on so many payments at once. When it slows down and we keep sending:
+ *
+ *     more requests in flight -> longer queues at the processor
+ *                             -> every request waits longer (Little's law:
+ *                                in flight = throughput x latency)
+ *                             -> callers time out and retry -> even more load
+ *
+ * Tail latency explodes for EVERYONE, even though the processor still
+ * completes the same number of payments per second.
+ *
+ * Fix: decide at our side how many payments may be in flight, and say
+ * "no" right away to the rest. A fast rejection is better than a slow
+ * timeout: the caller can retry elsewhere, show a message, or queue it.
+ *
+ * 1 - Concurrency limit, adjusted with AIMD (like TCP congestion control):
+ *         payment fast enough       -> limit + 1/limit   (additive increase,
+ *                                      about +1 per "round" of requests)
+ *         payment too slow / failed -> limit x 0.9       (multiplicative decrease)
+ *     The limit finds the processor's real capacity on its own and follows it
+ *     when the processor gets slower or faster.
+ *
+ * 2 - Token bucket for a hard rate cap (e.g. the processor's contract allows
+ *     500 calls/s). Implemented as GCRA: a single AtomicLong holding the
+ *     time when the next token is free, updated with one CAS.
+ *
+ * Both are lock-free: the hot path is a few CAS operations, no thread ever
+ * blocks in the limiter. Rejections throw PaymentRejectedException, a
+ * RejectedExecutionException like the executor's admission control in
+ * executor_singleton.java.
+ */
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+class PaymentRejectedException extends RejectedExecutionException {
+    enum Reason {
+        CONCURRENCY_LIMIT, RATE_LIMIT
+    }
+
+    private static final long serialVersionUID = 1L;
+
+    final Reason reason;
+
+    PaymentRejectedException(Reason reason, String message) {
+        super(message);
+        this.reason = reason;
+    }
+
+    // thrown on the fast path, a stack trace would cost more than the rejection itself
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
+
+/*
+ * GCRA (generic cell rate algorithm), the lock-free form of a token bucket.
+ * Instead of a token count plus a refill timer we store one timestamp:
+ * "theoretical arrival time" = when the bucket would be full again.
+ * Taking a token moves it one interval into the future. If it is already
+ * more than burst intervals ahead of now, the bucket is empty.
+ */
+class TokenBucket {
+    private final long intervalNanos; // one token every interval
+    private final long burstNanos; // how far ahead we may run = bucket size
+    private final AtomicLong fullAt = new AtomicLong(System.nanoTime());
+
+    TokenBucket(int perSecond, int burst) {
+        if (perSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("perSecond and burst must be positive");
+        }
+        // one token per nanosecond at most, above that the interval rounds down to 0 and nothing is limited
+        if (perSecond > TimeUnit.SECONDS.toNanos(1)) {
+            throw new IllegalArgumentException("perSecond must be at most 1,000,000,000: " + perSecond);
+        }
+        this.intervalNanos = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        this.burstNanos = intervalNanos * burst;
+    }
+
+    boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long start = Math.max(current, now); // an idle bucket doesn't save up more than full
+            long next = start + intervalNanos;
+            if (next - now > burstNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+}
+
+class AdaptiveLimiter {
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyTargetNanos;
+    private final double backoff;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong limitBits; // double limit, as Double.doubleToRawLongBits
+    private final AtomicLong lastDecrease;
+
+    AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, long latencyTarget, TimeUnit unit) {
+        if (minLimit < 1 || minLimit > initialLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("need 1 <= minLimit <= initialLimit <= maxLimit: "
+                    + minLimit + ", " + initialLimit + ", " + maxLimit);
+        }
+        if (latencyTarget <= 0) {
+            throw new IllegalArgumentException("latencyTarget must be positive: " + latencyTarget);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.latencyTargetNanos = unit.toNanos(latencyTarget);
+        this.backoff = 0.9;
+        this.limitBits = new AtomicLong(Double.doubleToRawLongBits(initialLimit));
+        this.lastDecrease = new AtomicLong(System.nanoTime() - latencyTargetNanos);
+    }
+
+    int limit() {
+        return (int) Double.longBitsToDouble(limitBits.get());
+    }
+
+    int inFlight() {
+        return inFlight.get();
+    }
+
+    // returns the in-flight count before we got in, or -1 if the limit is reached
+    int tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit()) {
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current;
+            }
+        }
+    }
+
+    // gave the slot back without calling the processor, says nothing about latency
+    void cancel() {
+        inFlight.decrementAndGet();
+    }
+
+    void release(long latencyNanos, boolean failed, int inFlightAtStart) {
+        inFlight.decrementAndGet();
+        if (failed || latencyNanos > latencyTargetNanos) {
+            decrease();
+        } else if (inFlightAtStart * 2 >= limit()) {
+            // only grow when the limit is actually being used, or it drifts up while idle
+            increase();
+        }
+    }
+
+    private void increase() {
+        while (true) {
+            long bits = limitBits.get();
+            double limit = Double.longBitsToDouble(bits);
+            double next = Math.min(maxLimit, limit + 1 / limit);
+            if (next == limit || limitBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * When the processor gets slow, ALL requests in flight come back slow at once.
+     * Backing off for each of them would crash the limit to the minimum, so
+     * decrease at most once per latency target (about one round trip).
+     */
+    private void decrease() {
+        long now = System.nanoTime();
+        long last = lastDecrease.get();
+        if (now - last < latencyTargetNanos || !lastDecrease.compareAndSet(last, now)) {
+            return;
+        }
+        while (true) {
+            long bits = limitBits.get();
+            double next = Math.max(minLimit, Double.longBitsToDouble(bits) * backoff);
+            if (limitBits.compareAndSet(bits, Double.doubleToRawLongBits(next))) {
+                return;
+            }
+        }
+    }
+}
+
+// Decorator, same idea as MeteredPaymentStrategy in metrics_registry.java.
+class LimitedPaymentStrategy implements PaymentStrategy {
+    private final PaymentStrategy delegate;
+    private final AdaptiveLimiter limiter;
+    private final TokenBucket rate; // null = no rate cap
+
+    final LongAdder accepted = new LongAdder();
+    final LongAdder rejectedByLimit = new LongAdder();
+    final LongAdder rejectedByRate = new LongAdder();
+    final LongAdder failed = new LongAdder();
+
+    public LimitedPaymentStrategy(PaymentStrategy delegate, AdaptiveLimiter limiter, TokenBucket rate) {
+        this.delegate = delegate;
+        this.limiter = limiter;
+        this.rate = rate;
+    }
+
+    @Override
+    public void pay(int amount) {
+        int inFlightAtStart = limiter.tryAcquire();
+        if (inFlightAtStart < 0) {
+            rejectedByLimit.increment();
+            throw new PaymentRejectedException(PaymentRejectedException.Reason.CONCURRENCY_LIMIT,
+                    "payment processor saturated (limit " + limiter.limit() + ")");
+        }
+        // the slot is taken first, so a rejected request never uses up a token
+        if (rate != null && !rate.tryAcquire()) {
+            limiter.cancel();
+            rejectedByRate.increment();
+            throw new PaymentRejectedException(PaymentRejectedException.Reason.RATE_LIMIT, "payment rate cap reached");
+        }
+        accepted.increment();
+        long start = System.nanoTime();
+        boolean ok = false;
+        try {
+            delegate.pay(amount);
+            ok = true;
+        } finally {
+            if (!ok) {
+                failed.increment();
+            }
+            limiter.release(System.nanoTime() - start, !ok, inFlightAtStart);
+        }
+    }
+
+    public int limit() {
+        return limiter.limit();
+    }
+}
+
+class PaymentLimiterDemo {
+    /*
+     * A processor with 4 workers and 10 ms per payment: 400 payments/s at most.
+     * Extra requests wait for a worker, so their latency grows with the queue.
+     */
+    static class SimulatedProcessor implements PaymentStrategy {
+        private final Semaphore workers = new Semaphore(4, true);
+
+        @Override
+        public void pay(int amount) {
+            workers.acquireUninterruptibly();
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                workers.release();
+            }
+        }
+    }
+
+    /*
+     * Open loop load: requests arrive on a fixed schedule whether or not earlier
+     * ones are done, like real users do. Latency is measured from arrival.
+     */
+    static void run(String label, PaymentStrategy strategy, int perSecond, int seconds) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        LongAdder rejected = new LongAdder();
+        AtomicReference<PaymentRejectedException> firstRejection = new AtomicReference<>();
+        int total = perSecond * seconds;
+        CountDownLatch done = new CountDownLatch(total);
+        ExecutorService callers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = TimeUnit.SECONDS.toNanos(1) / perSecond;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long arrival = start + i * interval;
+            LockSupport.parkNanos(arrival - System.nanoTime());
+            callers.execute(() -> {
+                try {
+                    strategy.pay(100);
+                    latency.record(System.nanoTime() - arrival);
+                } catch (PaymentRejectedException e) {
+                    rejected.increment();
+                    firstRejection.compareAndSet(null, e);
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        callers.shutdown();
+        HistogramSnapshot snapshot = latency.intervalSnapshot();
+        System.out.printf("%-16s ok=%-5d rejected=%-5d p50=%6.1f ms  p99=%7.1f ms  max=%7.1f ms%n", label,
+                snapshot.count(), rejected.sum(), snapshot.percentile(50) / 1e6, snapshot.percentile(99) / 1e6,
+                snapshot.max() / 1e6);
+        PaymentRejectedException rejection = firstRejection.get();
+        if (rejection != null) {
+            System.out.println("  first rejection: " + rejection.reason + " - " + rejection.getMessage());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int seconds = 2;
+        System.out.println("Processor capacity: 400 payments/s, offered load: 200/s, then 800/s");
+
+        run("normal, bare", new SimulatedProcessor(), 200, seconds);
+        run("overload, bare", new SimulatedProcessor(), 800, seconds);
+
+        AdaptiveLimiter limiter = new AdaptiveLimiter(20, 1, 200, 25, TimeUnit.MILLISECONDS);
+        LimitedPaymentStrategy limited = new LimitedPaymentStrategy(new SimulatedProcessor(), limiter, null);
+        run("overload, AIMD", limited, 800, seconds);
+        System.out.println("  limit settled at " + limited.limit() + " (processor has 4 workers)");
+
+        TokenBucket cap = new TokenBucket(300, 10);
+        LimitedPaymentStrategy capped = new LimitedPaymentStrategy(new SimulatedProcessor(),
+                new AdaptiveLimiter(20, 1, 200, 25, TimeUnit.MILLISECONDS), cap);
+        run("overload, +300/s", capped, 800, seconds);
+        System.out.println("  rejected by rate cap: " + capped.rejectedByRate.sum()
+                + ", by concurrency limit: " + capped.rejectedByLimit.sum());
+    }
+}
+
+/*
+ * Choosing the numbers:
+ * - latency target: what a "healthy" payment takes, with some headroom
+ *   (here 25 ms for a 10 ms payment). Too tight and the limit never grows,
+ *   too loose and queues build up before we react.
+ * - min limit >= 1, or a slow patch could shut the door completely.
+ * - the token bucket is for limits somebody else sets (contracts, quotas).
+ *   The adaptive limit is for limits nobody tells you about.
+ *
+ * Rejected payments must be visible: count them (see metrics_registry.java)
+ * and alert, a limiter that silently sheds half the traffic hides an outage.
+ */
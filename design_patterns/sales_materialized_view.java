@@ -0,0 +1,278 @@
+/*
+ * Materialized view of sales, maintained incrementally from checkouts
+ *
+ * db/materialized_views.sql explains the idea in SQL:
+ *     precompute SUM(amount), COUNT(*) ... GROUP BY ... once,
+ *     then queries read the stored result instead of scanning the sales table.
+ * and the two ways to keep it up to date:
+ *     Complete refresh     -> recompute everything from the base data
+ *     Incremental refresh  -> apply only the changes
+ *
+ * Our dashboards currently do a "complete refresh" on every request:
+ * loop over every completed ShoppingCart and add things up. That gets slower
+ * with every sale.
+ *
+ * Incremental version in Java:
+ *   - every successful ShoppingCart.pay(...) is one change event
+ *   - the event adds its amounts to running totals per item and per strategy
+ *   - totals are LongAdders (striped counters, see metrics_registry.java),
+ *     so many checkout threads can add at the same time without a lock
+ *
+ * Reading:
+ *   - snapshot() copies the totals into an immutable SalesSnapshot
+ *     (the "stored result"). Queries on it are hash lookups: O(1).
+ *   - refresh on demand (refresh()) or on a schedule (startScheduledRefresh()),
+ *     the same two options as REFRESH MATERIALIZED VIEW.
+ *
+ * A snapshot taken while checkouts are running may contain part of a cart
+ * (item totals already updated, strategy totals not yet). The next refresh
+ * fixes that. Same "data freshness" trade-off as any materialized view.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Running totals for one group (one item name, or one payment strategy).
+class SalesAccumulator {
+    final LongAdder revenue = new LongAdder();
+    final LongAdder count = new LongAdder();
+
+    void add(long amount) {
+        revenue.add(amount);
+        count.increment();
+    }
+}
+
+// One group in a snapshot: plain longs, never changes.
+class SalesTotals {
+    final long revenue;
+    final long count;
+
+    SalesTotals(long revenue, long count) {
+        this.revenue = revenue;
+        this.count = count;
+    }
+
+    @Override
+    public String toString() {
+        return "revenue=" + revenue + ", count=" + count;
+    }
+}
+
+class SalesSnapshot {
+    static final SalesTotals NONE = new SalesTotals(0, 0);
+
+    final Map<String, SalesTotals> byItem;
+    final Map<String, SalesTotals> byStrategy;
+    final SalesTotals total;
+    final long takenAtMillis;
+
+    SalesSnapshot(Map<String, SalesTotals> byItem, Map<String, SalesTotals> byStrategy, SalesTotals total) {
+        this.byItem = Collections.unmodifiableMap(byItem);
+        this.byStrategy = Collections.unmodifiableMap(byStrategy);
+        this.total = total;
+        this.takenAtMillis = System.currentTimeMillis();
+    }
+
+    // O(1) query: the work was done when the sale happened.
+    public SalesTotals item(String name) {
+        return byItem.getOrDefault(name, NONE);
+    }
+
+    public SalesTotals strategy(String name) {
+        return byStrategy.getOrDefault(name, NONE);
+    }
+}
+
+class SalesView implements AutoCloseable {
+    private final ConcurrentHashMap<String, SalesAccumulator> byItem = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SalesAccumulator> byStrategy = new ConcurrentHashMap<>();
+    private final SalesAccumulator total = new SalesAccumulator();
+    private volatile SalesSnapshot snapshot = new SalesSnapshot(new HashMap<>(), new HashMap<>(), SalesSnapshot.NONE);
+    private ScheduledExecutorService scheduler;
+
+    /*
+     * The checkout path: pay first, and only record the sale if pay() didn't throw.
+     * A failed payment is not a sale.
+     */
+    public void checkout(ShoppingCart cart, PaymentStrategy strategy) {
+        cart.pay(strategy);
+        onCheckout(cart, strategy);
+    }
+
+    // Incremental refresh: apply one change to the running totals.
+    public void onCheckout(ShoppingCart cart, PaymentStrategy strategy) {
+        int amount = 0;
+        for (Item item : cart.items) {
+            accumulator(byItem, item.getName()).add(item.getPrice());
+            amount += item.getPrice();
+        }
+        accumulator(byStrategy, strategy.getClass().getSimpleName()).add(amount);
+        total.add(amount);
+    }
+
+    private static SalesAccumulator accumulator(ConcurrentHashMap<String, SalesAccumulator> map, String key) {
+        SalesAccumulator accumulator = map.get(key); // fast path, no lambda, no lock
+        return accumulator != null ? accumulator : map.computeIfAbsent(key, k -> new SalesAccumulator());
+    }
+
+    // On-demand refresh: copy the running totals into a new immutable snapshot.
+    public SalesSnapshot refresh() {
+        SalesSnapshot fresh = new SalesSnapshot(copy(byItem), copy(byStrategy),
+                new SalesTotals(total.revenue.sum(), total.count.sum()));
+        snapshot = fresh;
+        return fresh;
+    }
+
+    // Scheduled refresh: dashboards read snapshot() and never wait for a refresh.
+    public void startScheduledRefresh(long period, TimeUnit unit) {
+        if (scheduler != null) {
+            throw new IllegalStateException("Scheduled refresh already running");
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sales-view-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::refresh, 0, period, unit);
+    }
+
+    public SalesSnapshot snapshot() {
+        return snapshot;
+    }
+
+    private static Map<String, SalesTotals> copy(ConcurrentHashMap<String, SalesAccumulator> source) {
+        Map<String, SalesTotals> copy = new HashMap<>(source.size() * 2);
+        source.forEach((key, acc) -> copy.put(key, new SalesTotals(acc.revenue.sum(), acc.count.sum())));
+        return copy;
+    }
+
+    // Complete refresh, for comparison: recompute everything from all completed carts.
+    static SalesSnapshot completeRefresh(List<ShoppingCart> carts, List<PaymentStrategy> strategies) {
+        Map<String, long[]> items = new HashMap<>();
+        Map<String, long[]> payments = new HashMap<>();
+        long revenue = 0;
+        for (int i = 0; i < carts.size(); i++) {
+            int amount = 0;
+            for (Item item : carts.get(i).items) {
+                long[] totals = items.computeIfAbsent(item.getName(), k -> new long[2]);
+                totals[0] += item.getPrice();
+                totals[1]++;
+                amount += item.getPrice();
+            }
+            long[] totals = payments.computeIfAbsent(strategies.get(i).getClass().getSimpleName(), k -> new long[2]);
+            totals[0] += amount;
+            totals[1]++;
+            revenue += amount;
+        }
+        Map<String, SalesTotals> byItem = new HashMap<>();
+        items.forEach((k, v) -> byItem.put(k, new SalesTotals(v[0], v[1])));
+        Map<String, SalesTotals> byStrategy = new HashMap<>();
+        payments.forEach((k, v) -> byStrategy.put(k, new SalesTotals(v[0], v[1])));
+        return new SalesSnapshot(byItem, byStrategy, new SalesTotals(revenue, carts.size()));
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
+
+class SalesViewDemo {
+    // quiet strategies, so a million checkouts don't print a million lines
+    static class QuietCard implements PaymentStrategy {
+        @Override
+        public void pay(int amount) {
+        }
+    }
+
+    static class QuietPaypal implements PaymentStrategy {
+        @Override
+        public void pay(int amount) {
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        try (SalesView view = new SalesView()) {
+            ShoppingCart cart = new ShoppingCart();
+            cart.addItem(new Item("Item 1", 100));
+            cart.addItem(new Item("Item 2", 200));
+            view.checkout(cart, new PaypalPayment("john@example.com", "password"));
+            System.out.println("PaypalPayment: " + view.refresh().strategy("PaypalPayment")); // revenue=300, count=1
+
+            view.startScheduledRefresh(100, TimeUnit.MILLISECONDS);
+
+            // a million checkouts from 4 threads, keeping the carts for the complete-refresh comparison
+            int perThread = 250_000;
+            List<ShoppingCart> carts = new ArrayList<>();
+            List<PaymentStrategy> strategies = new ArrayList<>(); // guarded by carts, same index as the cart
+            carts.add(cart);
+            strategies.add(new PaypalPayment("john@example.com", "password"));
+            Thread[] threads = new Thread[4];
+            for (int t = 0; t < threads.length; t++) {
+                long seed = t;
+                threads[t] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    PaymentStrategy card = new QuietCard();
+                    PaymentStrategy paypal = new QuietPaypal();
+                    for (int i = 0; i < perThread; i++) {
+                        ShoppingCart c = new ShoppingCart();
+                        c.addItem(new Item("Item " + random.nextInt(100), 1 + random.nextInt(500)));
+                        c.addItem(new Item("Item " + random.nextInt(100), 1 + random.nextInt(500)));
+                        PaymentStrategy s = random.nextBoolean() ? card : paypal;
+                        view.checkout(c, s);
+                        synchronized (carts) {
+                            carts.add(c);
+                            strategies.add(s);
+                        }
+                    }
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            SalesSnapshot incremental = view.refresh();
+
+            long start = System.nanoTime();
+            SalesSnapshot complete = SalesView.completeRefresh(carts, strategies);
+            long completeNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long sink = 0;
+            for (int i = 0; i < 1_000_000; i++) {
+                sink += view.snapshot().item("Item " + (i % 100)).revenue;
+            }
+            long queryNanos = (System.nanoTime() - start) / 1_000_000;
+
+            System.out.println("Total (incremental): " + incremental.total);
+            System.out.println("Total (complete):    " + complete.total);
+            System.out.println("Item 7 matches: " + (incremental.item("Item 7").revenue == complete.item("Item 7").revenue));
+            System.out.printf("Complete refresh: %,d ms per dashboard query%n", completeNanos / 1_000_000);
+            System.out.printf("Snapshot lookup:  %,d ns per dashboard query (sink %d)%n", queryNanos, sink % 10);
+        }
+    }
+}
+
+/*
+ * When incremental maintenance fits:
+ * - aggregates that can be updated from one change: SUM, COUNT, MIN (insert only), ...
+ * - a steady stream of small changes (checkouts)
+ *
+ * When it doesn't:
+ * - aggregates like MEDIAN or COUNT(DISTINCT ...) need more state than a running total
+ * - refunds or corrections must be applied as negative changes, or the
+ *   totals drift; a periodic complete refresh is a good safety net.
+ */